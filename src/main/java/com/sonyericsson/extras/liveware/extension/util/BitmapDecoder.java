@@ -0,0 +1,348 @@
+package com.sonyericsson.extras.liveware.extension.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.util.DisplayMetrics;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decodes images downsampled to the size they are shown in. The bounds of
+ * the image are read first and the image is then decoded with the largest
+ * sample size that still covers the target size. Decoded bitmaps are kept in
+ * a process wide least recently used cache, keyed by uri and target size and
+ * limited by the number of bytes used by the bitmaps. A content observer is
+ * registered for the content uri of each cached image, and the bitmaps of a
+ * uri are dropped when its content changes. Resource images are cached
+ * without an observer. Images from other uris, such as files, can not be
+ * observed and are not cached.
+ * <p/>
+ * Bitmaps returned from the cache are shared and must not be modified or
+ * recycled.
+ */
+public class BitmapDecoder {
+
+    /**
+     * Max number of bytes used by the cached bitmaps.
+     */
+    private static final int MAX_CACHE_BYTES = (int) Math.min(Runtime.getRuntime().maxMemory() / 16,
+            2 * 1024 * 1024);
+
+    private static final String CONTACT_PREFIX = "contact:";
+
+    private static final LinkedHashMap<String, CacheEntry> sCache = new LinkedHashMap<String, CacheEntry>(
+            16, 0.75f, true);
+
+    /**
+     * Observers of the uris of the cached bitmaps, by uri.
+     */
+    private static final HashMap<Uri, SourceObserver> sObservers = new HashMap<Uri, SourceObserver>();
+
+    private static int sCacheBytes = 0;
+
+    /**
+     * This class can not be instantiated
+     */
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Decode an image from a uri.
+     *
+     * @param context   The context.
+     * @param uriString The uri as a string.
+     * @param width     The width the image is shown in, 0 for full size.
+     * @param height    The height the image is shown in, 0 for full size.
+     * @return The bitmap or null if it could not be decoded.
+     */
+    public static Bitmap decodeUri(final Context context, String uriString, int width, int height) {
+        if (uriString == null) {
+            return null;
+        }
+        String key = getKey(uriString, width, height);
+        Bitmap bitmap = get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        Uri uri = Uri.parse(uriString);
+        if (uri == null) {
+            return null;
+        }
+        bitmap = decode(context, uri, false, width, height);
+        put(context, key, uri, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Decode the photo of a contact.
+     *
+     * @param context    The context.
+     * @param contactUri The contact URI.
+     * @param width      The width the image is shown in, 0 for full size.
+     * @param height     The height the image is shown in, 0 for full size.
+     * @return The bitmap or null if the contact has no photo.
+     */
+    public static Bitmap decodeContactPhoto(final Context context, Uri contactUri, int width,
+                                            int height) {
+        if (contactUri == null) {
+            return null;
+        }
+        String key = getKey(CONTACT_PREFIX + contactUri, width, height);
+        Bitmap bitmap = get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        bitmap = decode(context, contactUri, true, width, height);
+        put(context, key, contactUri, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Remove all bitmaps from the cache.
+     */
+    public static void clearCache() {
+        synchronized (sCache) {
+            sCache.clear();
+            sCacheBytes = 0;
+            for (SourceObserver observer : sObservers.values()) {
+                observer.unregister();
+            }
+            sObservers.clear();
+        }
+    }
+
+    /**
+     * Remove the bitmaps of a uri from the cache.
+     *
+     * @param uri The uri of the image or the contact.
+     */
+    public static void invalidate(Uri uri) {
+        synchronized (sCache) {
+            Iterator<CacheEntry> iterator = sCache.values().iterator();
+            while (iterator.hasNext()) {
+                CacheEntry entry = iterator.next();
+                if (entry.mSource.equals(uri)) {
+                    sCacheBytes -= getBytes(entry.mBitmap);
+                    iterator.remove();
+                }
+            }
+            release(uri);
+        }
+    }
+
+    /**
+     * Get the sample size to decode an image with so that it still covers
+     * the target size.
+     *
+     * @param imageWidth   The width of the image.
+     * @param imageHeight  The height of the image.
+     * @param targetWidth  The target width, 0 for full size.
+     * @param targetHeight The target height, 0 for full size.
+     * @return The sample size, a power of 2.
+     */
+    public static int getSampleSize(int imageWidth, int imageHeight, int targetWidth,
+                                    int targetHeight) {
+        int sampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return sampleSize;
+        }
+        while (imageWidth / (sampleSize * 2) >= targetWidth
+                && imageHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap decode(final Context context, Uri uri, boolean contact, int width,
+                                 int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (width > 0 && height > 0) {
+            options.inJustDecodeBounds = true;
+            decodeStream(context, uri, contact, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, width,
+                    height);
+            options.inJustDecodeBounds = false;
+        }
+        // We use default density for all bitmaps to avoid scaling.
+        options.inDensity = DisplayMetrics.DENSITY_DEFAULT;
+        options.inTargetDensity = DisplayMetrics.DENSITY_DEFAULT;
+        options.inScaled = false;
+        Bitmap bitmap = decodeStream(context, uri, contact, options);
+        if (bitmap != null) {
+            bitmap.setDensity(DisplayMetrics.DENSITY_DEFAULT);
+        }
+        return bitmap;
+    }
+
+    private static Bitmap decodeStream(final Context context, Uri uri, boolean contact,
+                                       BitmapFactory.Options options) {
+        InputStream inputStream = null;
+        try {
+            if (contact) {
+                inputStream = ContactsContract.Contacts.openContactPhotoInputStream(
+                        context.getContentResolver(), uri);
+            } else {
+                inputStream = context.getContentResolver().openInputStream(uri);
+            }
+            if (inputStream != null) {
+                return BitmapFactory.decodeStream(inputStream, null, options);
+            }
+        } catch (FileNotFoundException e) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to open " + uri, e);
+            }
+        } catch (SecurityException e) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to open " + uri, e);
+            }
+        } catch (OutOfMemoryError e) {
+            if (Dbg.DEBUG) {
+                Dbg.e("Out of memory decoding " + uri);
+            }
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getKey(String uri, int width, int height) {
+        return uri + '@' + width + 'x' + height;
+    }
+
+    private static Bitmap get(String key) {
+        synchronized (sCache) {
+            CacheEntry entry = sCache.get(key);
+            return (entry != null) ? entry.mBitmap : null;
+        }
+    }
+
+    private static void put(final Context context, String key, Uri source, Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        int bytes = getBytes(bitmap);
+        if (bytes > MAX_CACHE_BYTES) {
+            return;
+        }
+        String scheme = source.getScheme();
+        boolean resource = ContentResolver.SCHEME_ANDROID_RESOURCE.equals(scheme);
+        if (!resource && !ContentResolver.SCHEME_CONTENT.equals(scheme)) {
+            return;
+        }
+        synchronized (sCache) {
+            if (!resource && !sObservers.containsKey(source)) {
+                SourceObserver observer = new SourceObserver(
+                        context.getApplicationContext().getContentResolver(), source);
+                if (!observer.register()) {
+                    // Changes would not be seen, the bitmap could go stale.
+                    return;
+                }
+                sObservers.put(source, observer);
+            }
+            CacheEntry previous = sCache.put(key, new CacheEntry(bitmap, source));
+            if (previous != null) {
+                sCacheBytes -= getBytes(previous.mBitmap);
+            }
+            sCacheBytes += bytes;
+            Iterator<Map.Entry<String, CacheEntry>> iterator = sCache.entrySet().iterator();
+            while (sCacheBytes > MAX_CACHE_BYTES && iterator.hasNext()) {
+                CacheEntry eldest = iterator.next().getValue();
+                sCacheBytes -= getBytes(eldest.mBitmap);
+                iterator.remove();
+                release(eldest.mSource);
+            }
+        }
+    }
+
+    /**
+     * Stop observing a uri that has no cached bitmaps left. Must be called
+     * with the cache locked.
+     */
+    private static void release(Uri source) {
+        for (CacheEntry entry : sCache.values()) {
+            if (entry.mSource.equals(source)) {
+                return;
+            }
+        }
+        SourceObserver observer = sObservers.remove(source);
+        if (observer != null) {
+            observer.unregister();
+        }
+    }
+
+    private static int getBytes(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * A cached bitmap and the uri it was decoded from.
+     */
+    private static class CacheEntry {
+        final Bitmap mBitmap;
+
+        final Uri mSource;
+
+        CacheEntry(Bitmap bitmap, Uri source) {
+            mBitmap = bitmap;
+            mSource = source;
+        }
+    }
+
+    /**
+     * Drops the cached bitmaps of a uri when its content changes.
+     */
+    private static class SourceObserver extends ContentObserver {
+
+        private final ContentResolver mResolver;
+
+        private final Uri mSource;
+
+        SourceObserver(ContentResolver resolver, Uri source) {
+            // Called on a binder thread, the cache is synchronized.
+            super(null);
+            mResolver = resolver;
+            mSource = source;
+        }
+
+        boolean register() {
+            try {
+                mResolver.registerContentObserver(mSource, true, this);
+                return true;
+            } catch (SecurityException e) {
+                if (Dbg.DEBUG) {
+                    Dbg.w("Failed to observe " + mSource, e);
+                }
+                return false;
+            }
+        }
+
+        void unregister() {
+            mResolver.unregisterContentObserver(this);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate(mSource);
+        }
+    }
+}
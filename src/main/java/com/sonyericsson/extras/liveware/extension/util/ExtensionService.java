@@ -50,6 +50,7 @@ import com.sonyericsson.extras.liveware.extension.util.control.ControlExtension;
 import com.sonyericsson.extras.liveware.extension.util.control.ControlListItem;
 import com.sonyericsson.extras.liveware.extension.util.control.ControlObjectClickEvent;
 import com.sonyericsson.extras.liveware.extension.util.control.ControlTouchEvent;
+import com.sonyericsson.extras.liveware.extension.util.control.HostCapabilities;
 import com.sonyericsson.extras.liveware.extension.util.registration.IRegisterCallback;
 import com.sonyericsson.extras.liveware.extension.util.registration.RegisterExtensionTask;
 import com.sonyericsson.extras.liveware.extension.util.registration.RegistrationInformation;
@@ -134,6 +135,8 @@ public abstract class ExtensionService extends Service implements IRegisterCallb
                     } else if (Registration.Intents.ACCESSORY_CONNECTION_INTENT.equals(action)) {
                         int status = mIntent.getIntExtra(
                                 Registration.Intents.EXTRA_CONNECTION_STATUS, -1);
+                        refreshHostCapabilities(mIntent
+                                .getStringExtra(Registration.Intents.EXTRA_AHA_PACKAGE_NAME));
                         onConnectionChanged(status == Registration.AccessoryConnectionStatus.STATUS_CONNECTED);
                         if (status == Registration.AccessoryConnectionStatus.STATUS_DISCONNECTED) {
                             // Accessory disconnected.
@@ -172,7 +175,8 @@ public abstract class ExtensionService extends Service implements IRegisterCallb
                             || Control.Intents.CONTROL_LIST_REFRESH_REQUEST_INTENT.equals(action)
                             || Control.Intents.CONTROL_LIST_ITEM_SELECTED_INTENT.equals(action)
                             || Control.Intents.CONTROL_MENU_ITEM_SELECTED.equals(action)
-                            || Control.Intents.CONTROL_SWIPE_EVENT_INTENT.equals(action)) {
+                            || Control.Intents.CONTROL_SWIPE_EVENT_INTENT.equals(action)
+                            || Control.Intents.CONTROL_ACTIVE_POWER_SAVE_MODE_STATUS_CHANGED_INTENT.equals(action)) {
                         handleControlIntent(mIntent);
                         // Check if service shall be stopped.
                         // Assume accessory connected as it sent something to
@@ -521,6 +525,24 @@ public abstract class ExtensionService extends Service implements IRegisterCallb
         return false;
     }
 
+    /**
+     * Read the capabilities of a host application again after an accessory
+     * connection change, and give them to its control if there is one.
+     *
+     * @param hostAppPackageName Package name of host application.
+     */
+    private void refreshHostCapabilities(String hostAppPackageName) {
+        if (hostAppPackageName == null) {
+            return;
+        }
+        ControlExtension control = mControls.get(hostAppPackageName);
+        if (control != null) {
+            control.refreshHostCapabilities();
+        } else {
+            HostCapabilities.refresh(this, hostAppPackageName);
+        }
+    }
+
     /**
      * Destroy all controls. Inform all controls that they shall free any
      * resources such as threads and registered broad cast receivers.
@@ -802,6 +824,10 @@ public abstract class ExtensionService extends Service implements IRegisterCallb
             Dbg.d("List refresh");
         } else if (Control.Intents.CONTROL_MENU_ITEM_SELECTED.equals(action)) {
             control.onMenuItemSelected(intent.getIntExtra(Control.Intents.EXTRA_MENU_ITEM_ID, -1));
+        } else if (Control.Intents.CONTROL_ACTIVE_POWER_SAVE_MODE_STATUS_CHANGED_INTENT.equals(action)) {
+            control.onActiveLowPowerModeChange(intent.getIntExtra(
+                    Control.Intents.EXTRA_ACTIVE_POWER_MODE_STATUS,
+                    Control.Intents.ACTIVE_POWER_SAVE_MODE_OFF) == Control.Intents.ACTIVE_POWER_SAVE_MODE_ON);
         }
     }
 
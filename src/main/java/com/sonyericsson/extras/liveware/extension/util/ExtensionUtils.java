@@ -213,6 +213,23 @@ public class ExtensionUtils {
         return bitmap;
     }
 
+    /**
+     * Get the contact photo from a contact URI, downsampled to the size it is
+     * shown in. The photo is cached until the contact changes, the returned
+     * bitmap is shared and must not be modified or recycled.
+     *
+     * @param context    The context.
+     * @param contactUri The contact URI.
+     * @param width      The width the photo is shown in.
+     * @param height     The height the photo is shown in.
+     * @return The contact photo.
+     * @see BitmapDecoder
+     */
+    public static Bitmap getContactPhoto(final Context context, Uri contactUri, int width,
+                                         int height) {
+        return BitmapDecoder.decodeContactPhoto(context, contactUri, width, height);
+    }
+
     /**
      * Get bitmap from a URI.
      *
@@ -241,6 +258,23 @@ public class ExtensionUtils {
         return bitmap;
     }
 
+    /**
+     * Get bitmap from a URI, downsampled to the size it is shown in. The
+     * bitmap is cached until the content of the URI changes, the returned
+     * bitmap is shared and must not be modified or recycled.
+     *
+     * @param context   The context.
+     * @param uriString The URI as a string.
+     * @param width     The width the bitmap is shown in.
+     * @param height    The height the bitmap is shown in.
+     * @return The bitmap.
+     * @see BitmapDecoder
+     */
+    public static Bitmap getBitmapFromUri(final Context context, String uriString, int width,
+                                          int height) {
+        return BitmapDecoder.decodeUri(context, uriString, width, height);
+    }
+
     /**
      * Get id of a registered extension
      *
@@ -33,22 +33,20 @@ package com.sonyericsson.extras.liveware.extension.util.control;
 
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.database.SQLException;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
+import android.net.Uri;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
 import com.sonyericsson.extras.liveware.aef.control.Control;
 import com.sonyericsson.extras.liveware.aef.registration.Registration;
-import com.sonyericsson.extras.liveware.aef.registration.Registration.Device;
-import com.sonyericsson.extras.liveware.aef.registration.Registration.DeviceColumns;
-import com.sonyericsson.extras.liveware.aef.registration.Registration.HostApp;
-import com.sonyericsson.extras.liveware.aef.registration.Registration.HostAppColumns;
 import com.sonyericsson.extras.liveware.extension.util.Dbg;
 import com.sonyericsson.extras.liveware.extension.util.ExtensionUtils;
 
@@ -59,6 +57,19 @@ import java.io.ByteArrayOutputStream;
  */
 public abstract class ControlExtension {
 
+    /**
+     * Parsed layouts by layout resource id, shared by all controls in the
+     * process.
+     */
+    private static final SparseArray<ParsedLayout> sParsedLayouts = new SparseArray<ParsedLayout>();
+
+    /**
+     * Images of this size or larger are sent by URI through
+     * {@link FrameProvider}, if it is declared, to keep them out of the
+     * intent.
+     */
+    private static final int FRAME_URI_MIN_SIZE = 4 * 1024;
+
     private static final int STATE_CREATED = 0;
     private int mState = STATE_CREATED;
     private static final int STATE_STARTED = 1;
@@ -69,6 +80,8 @@ public abstract class ControlExtension {
 
     protected final BitmapFactory.Options mBitmapOptions;
 
+    private HostCapabilities mHostCapabilities = null;
+
     /**
      * Create control extension.
      *
@@ -96,6 +109,7 @@ public abstract class ControlExtension {
      * Start control.
      */
     public final void start() {
+        mHostCapabilities = HostCapabilities.get(mContext, mHostAppPackageName);
         mState = STATE_STARTED;
         onStart();
     }
@@ -129,6 +143,14 @@ public abstract class ControlExtension {
         onStop();
     }
 
+    /**
+     * Read the host capabilities again. Called when an accessory of the host
+     * has been connected or disconnected.
+     */
+    public final void refreshHostCapabilities() {
+        mHostCapabilities = HostCapabilities.refresh(mContext, mHostAppPackageName);
+    }
+
     /**
      * Destroy control.
      */
@@ -303,6 +325,19 @@ public abstract class ControlExtension {
 
     }
 
+    /**
+     * Called when the display enters or leaves active power save mode. In
+     * power save mode the control is expected to show monochrome content,
+     * and gets no input events unless it put the display in power save mode
+     * itself.
+     *
+     * @param lowPowerModeOn True if the display is in power save mode.
+     * @see Control.Intents#CONTROL_ACTIVE_POWER_SAVE_MODE_STATUS_CHANGED_INTENT
+     */
+    public void onActiveLowPowerModeChange(final boolean lowPowerModeOn) {
+
+    }
+
     /**
      * Send request to start to host application.
      */
@@ -396,13 +431,60 @@ public abstract class ControlExtension {
             Dbg.d("sendImage");
         }
 
+        sendImage(layoutReference, encodeImage(bitmap));
+    }
+
+    /**
+     * Update an image in a specific layout, on the accessory, with an image
+     * that has already been encoded.
+     *
+     * @param layoutReference The referenced resource within the current layout.
+     * @param image           The image as encoded by {@link #encodeImage(Bitmap)}.
+     */
+    protected void sendImage(final int layoutReference, final byte[] image) {
         Intent intent = new Intent(Control.Intents.CONTROL_SEND_IMAGE_INTENT);
         intent.putExtra(Control.Intents.EXTRA_LAYOUT_REFERENCE, layoutReference);
+        sendFrame(intent, image);
+    }
+
+    /**
+     * Send an intent with an encoded image to the host. Large images are
+     * stored by {@link FrameProvider} on its writer thread and the intent is
+     * sent from there with the URI of the frame, others are put as data.
+     *
+     * @param intent The intent.
+     * @param image  The encoded image.
+     */
+    protected void sendFrame(final Intent intent, final byte[] image) {
+        if (image.length < FRAME_URI_MIN_SIZE || !FrameProvider.isAvailable(mContext)) {
+            intent.putExtra(Control.Intents.EXTRA_DATA, image);
+            sendToHostApp(intent);
+            return;
+        }
+        addPackageNames(intent);
+        FrameProvider.store(mContext, image, new FrameProvider.Callback() {
+            public void onStored(Uri uri) {
+                if (uri != null) {
+                    intent.putExtra(Control.Intents.EXTRA_DATA_URI, uri.toString());
+                } else {
+                    intent.putExtra(Control.Intents.EXTRA_DATA, image);
+                }
+                mContext.sendBroadcast(intent, Registration.HOSTAPP_PERMISSION);
+            }
+        });
+    }
+
+    /**
+     * Encode a bitmap the way it is sent to the accessory. Can be called on
+     * any thread, so that images can be encoded ahead of time.
+     *
+     * @param bitmap The bitmap.
+     * @return The encoded image.
+     */
+    protected static byte[] encodeImage(final Bitmap bitmap) {
         ByteArrayOutputStream os = new ByteArrayOutputStream(256);
         bitmap.compress(CompressFormat.PNG, 100, os);
-        byte[] buffer = os.toByteArray();
-        intent.putExtra(Control.Intents.EXTRA_DATA, buffer);
-        sendToHostApp(intent);
+        return os.toByteArray();
     }
 
     /**
@@ -432,12 +514,8 @@ public abstract class ControlExtension {
             Dbg.d("showBitmap");
         }
 
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(256);
-        bitmap.compress(CompressFormat.PNG, 100, outputStream);
-
         Intent intent = new Intent(Control.Intents.CONTROL_DISPLAY_DATA_INTENT);
-        intent.putExtra(Control.Intents.EXTRA_DATA, outputStream.toByteArray());
-        sendToHostApp(intent);
+        sendFrame(intent, encodeImage(bitmap));
     }
 
     /**
@@ -452,14 +530,10 @@ public abstract class ControlExtension {
             Dbg.v("showBitmap x: " + x + " y: " + y);
         }
 
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(256);
-        bitmap.compress(CompressFormat.PNG, 100, outputStream);
-
         Intent intent = new Intent(Control.Intents.CONTROL_DISPLAY_DATA_INTENT);
         intent.putExtra(Control.Intents.EXTRA_X_OFFSET, x);
         intent.putExtra(Control.Intents.EXTRA_Y_OFFSET, y);
-        intent.putExtra(Control.Intents.EXTRA_DATA, outputStream.toByteArray());
-        sendToHostApp(intent);
+        sendFrame(intent, encodeImage(bitmap));
     }
 
     /**
@@ -619,9 +693,36 @@ public abstract class ControlExtension {
      * @param intent The intent to send.
      */
     protected void sendToHostApp(final Intent intent) {
+        addPackageNames(intent);
+        if (FrameProvider.isBusy()) {
+            // Keep the order with the frames that are being stored.
+            FrameProvider.post(new Runnable() {
+                public void run() {
+                    mContext.sendBroadcast(intent, Registration.HOSTAPP_PERMISSION);
+                }
+            });
+        } else {
+            mContext.sendBroadcast(intent, Registration.HOSTAPP_PERMISSION);
+        }
+    }
+
+    private void addPackageNames(final Intent intent) {
         intent.putExtra(Control.Intents.EXTRA_AEA_PACKAGE_NAME, mContext.getPackageName());
         intent.setPackage(mHostAppPackageName);
-        mContext.sendBroadcast(intent, Registration.HOSTAPP_PERMISSION);
+    }
+
+    /**
+     * Get the hardware capabilities of the host application. They are read
+     * once when the control is started and kept until an accessory
+     * connection change, or read again if they could not be read completely.
+     *
+     * @return The capabilities.
+     */
+    protected HostCapabilities getHostCapabilities() {
+        if (mHostCapabilities == null || !mHostCapabilities.isComplete()) {
+            mHostCapabilities = HostCapabilities.get(mContext, mHostAppPackageName);
+        }
+        return mHostCapabilities;
     }
 
     /**
@@ -630,37 +731,7 @@ public abstract class ControlExtension {
      * @return The host application id.
      */
     protected long getHostAppId() {
-        Cursor cursor = null;
-        try {
-            cursor = mContext.getContentResolver().query(HostApp.URI,
-                    new String[]{
-                            HostAppColumns._ID
-                    }, HostAppColumns.PACKAGE_NAME + " = ?",
-                    new String[]{
-                            mHostAppPackageName
-                    }, null
-            );
-            if (cursor != null && cursor.moveToFirst()) {
-                return cursor.getLong(cursor.getColumnIndexOrThrow(HostAppColumns._ID));
-            }
-        } catch (SQLException e) {
-            if (Dbg.DEBUG) {
-                Dbg.w("Failed to query host apps", e);
-            }
-        } catch (SecurityException e) {
-            if (Dbg.DEBUG) {
-                Dbg.w("Failed to query host apps", e);
-            }
-        } catch (IllegalArgumentException e) {
-            if (Dbg.DEBUG) {
-                Dbg.w("Failed to query host apps", e);
-            }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-        return -1;
+        return getHostCapabilities().getHostAppId();
     }
 
     /**
@@ -669,40 +740,33 @@ public abstract class ControlExtension {
      * @return True if vibrator exists.
      */
     protected boolean hasVibrator() {
-        long hostAppId = getHostAppId();
-
-        Cursor cursor = null;
-        try {
-            cursor = mContext.getContentResolver().query(
-                    Device.URI,
-                    new String[]{
-                            DeviceColumns.VIBRATOR
-                    },
-                    DeviceColumns.HOST_APPLICATION_ID + " = " + hostAppId + " AND "
-                            + DeviceColumns.VIBRATOR + " = 1", null, null
-            );
-            if (cursor != null) {
-                return (cursor.getCount() > 0);
-            }
-        } catch (SQLException exception) {
-            if (Dbg.DEBUG) {
-                Dbg.e("Failed to query vibrator", exception);
-            }
-        } catch (SecurityException exception) {
-            if (Dbg.DEBUG) {
-                Dbg.e("Failed to query vibrator", exception);
-            }
-        } catch (IllegalArgumentException exception) {
-            if (Dbg.DEBUG) {
-                Dbg.e("Failed to query vibrator", exception);
-            }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
+        return getHostCapabilities().hasVibrator();
+    }
+
+    /**
+     * Get the clickable structure of a layout. The layout is inflated and
+     * parsed once per process and configuration, every call returns a copy
+     * of the parsed layout to attach listeners to.
+     *
+     * @param layoutId The layout resource id.
+     * @return The parsed layout.
+     */
+    protected ControlViewGroup parseLayout(int layoutId) {
+        Configuration configuration = mContext.getResources().getConfiguration();
+        synchronized (sParsedLayouts) {
+            ParsedLayout parsed = sParsedLayouts.get(layoutId);
+            if (parsed == null || !parsed.mConfiguration.equals(configuration)) {
+                if (Dbg.DEBUG) {
+                    Dbg.d("Parsing layout " + layoutId);
+                }
+                LayoutInflater inflater = (LayoutInflater) mContext
+                        .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+                parsed = new ParsedLayout(new Configuration(configuration),
+                        parseLayout(inflater.inflate(layoutId, null)));
+                sParsedLayouts.put(layoutId, parsed);
             }
+            return parsed.mLayout.copy();
         }
-
-        return false;
     }
 
     protected ControlViewGroup parseLayout(View v) {
@@ -727,4 +791,16 @@ public abstract class ControlExtension {
         }
     }
 
+    private static class ParsedLayout {
+
+        final Configuration mConfiguration;
+
+        final ControlViewGroup mLayout;
+
+        ParsedLayout(Configuration configuration, ControlViewGroup layout) {
+            mConfiguration = configuration;
+            mLayout = layout;
+        }
+    }
+
 }
@@ -69,6 +69,15 @@ public class ControlView {
         }
     }
 
+    /**
+     * Create a copy of the view, without its listeners.
+     *
+     * @return The copy.
+     */
+    public ControlView copy() {
+        return new ControlView(id, isClickable, isLongClickable);
+    }
+
     public int getId() {
         return id;
     }
@@ -59,6 +59,21 @@ public class ControlViewGroup {
         }
     }
 
+    /**
+     * Create a copy of the group, without listeners, so that a parsed layout
+     * can be shared.
+     *
+     * @return The copy.
+     */
+    public ControlViewGroup copy() {
+        ControlViewGroup group = new ControlViewGroup();
+        SparseArray<ControlView> views = getViews();
+        for (int i = 0; i < views.size(); i++) {
+            group.addView(views.valueAt(i).copy());
+        }
+        return group;
+    }
+
     public ControlView findViewById(int id) {
         return getViews().get(id);
     }
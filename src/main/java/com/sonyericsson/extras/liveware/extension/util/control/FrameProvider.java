@@ -0,0 +1,354 @@
+package com.sonyericsson.extras.liveware.extension.util.control;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves encoded frames to the host application by URI, so that a frame is
+ * sent as a short {@link com.sonyericsson.extras.liveware.aef.control.Control.Intents#EXTRA_DATA_URI}
+ * instead of a byte array in the intent. The host reads the frame through a
+ * file descriptor.
+ * <p/>
+ * Frames are hashed and written on a single background thread, and an intent
+ * that carries a frame is sent from that thread once the frame is stored.
+ * Other intents of the extension are queued behind pending frames, so they
+ * reach the host in the order they were sent. Frames are named by their
+ * content, so a frame that is sent again gets the same URI and is not
+ * written again. The last {@link #MAX_FRAMES} frames are kept in the cache
+ * directory. A file that falls out of them is kept for
+ * {@link #RETAIN_TIME} more, because the host may not have opened it yet.
+ * <p/>
+ * To be used the provider must be declared in the manifest with the
+ * authority {@code <package name>.frames}, readable with the host
+ * application permission:
+ * <p/>
+ * <pre>
+ * &lt;provider
+ *     android:name="com.sonyericsson.extras.liveware.extension.util.control.FrameProvider"
+ *     android:authorities="your.package.frames"
+ *     android:exported="true"
+ *     android:readPermission="com.sonyericsson.extras.liveware.aef.HOSTAPP_PERMISSION" /&gt;
+ * </pre>
+ */
+public class FrameProvider extends ContentProvider {
+
+    private static final String AUTHORITY_SUFFIX = ".frames";
+
+    private static final String DIRECTORY = "frames";
+
+    private static final String EXTENSION = ".png";
+
+    private static final String MIME_TYPE = "image/png";
+
+    private static final int MAX_FRAMES = 16;
+
+    private static final long RETAIN_TIME = 60 * 1000;
+
+    private static final LinkedHashMap<String, File> sFrames = new LinkedHashMap<String, File>(
+            MAX_FRAMES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+            if (size() <= MAX_FRAMES) {
+                return false;
+            }
+            // The host may not have read a frame it has been sent, the file
+            // is deleted by a later sweep.
+            sRetired.put(eldest.getKey(), new RetiredFrame(eldest.getValue()));
+            return true;
+        }
+    };
+
+    /**
+     * Frames that fell out of the cache, by name, oldest first.
+     */
+    private static final LinkedHashMap<String, RetiredFrame> sRetired = new LinkedHashMap<String, RetiredFrame>();
+
+    private static final Executor sWriter = Executors.newSingleThreadExecutor();
+
+    /**
+     * Number of tasks queued on the writer.
+     */
+    private static int sPending = 0;
+
+    private static Boolean sAvailable = null;
+
+    /**
+     * Called on the writer thread when a frame has been stored.
+     */
+    public interface Callback {
+        /**
+         * @param uri The URI of the frame, or null if it could not be stored.
+         */
+        void onStored(Uri uri);
+    }
+
+    /**
+     * Check if the provider is declared for this package.
+     *
+     * @param context The context.
+     * @return True if frames can be served by URI.
+     */
+    public static boolean isAvailable(Context context) {
+        synchronized (sFrames) {
+            if (sAvailable == null) {
+                sAvailable = context.getPackageManager().resolveContentProvider(
+                        getAuthority(context), 0) != null;
+            }
+            return sAvailable;
+        }
+    }
+
+    /**
+     * Store a frame on the writer thread. The frame is hashed and written
+     * there, the caller is not blocked.
+     *
+     * @param context  The context.
+     * @param image    The encoded frame.
+     * @param callback Called on the writer thread when the frame is stored.
+     */
+    public static void store(Context context, final byte[] image, final Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        post(new Runnable() {
+            public void run() {
+                callback.onStored(storeFrame(appContext, image));
+            }
+        });
+    }
+
+    /**
+     * Check if there are tasks queued on the writer thread.
+     *
+     * @return True if a task that is posted now would wait for them.
+     */
+    public static boolean isBusy() {
+        synchronized (sFrames) {
+            return sPending > 0;
+        }
+    }
+
+    /**
+     * Run a task on the writer thread, after the frames queued so far.
+     *
+     * @param task The task.
+     */
+    public static void post(final Runnable task) {
+        synchronized (sFrames) {
+            sPending++;
+        }
+        sWriter.execute(new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    synchronized (sFrames) {
+                        sPending--;
+                    }
+                }
+            }
+        });
+    }
+
+    private static Uri storeFrame(Context context, byte[] image) {
+        String name = getName(image);
+        if (name == null) {
+            return null;
+        }
+        File file;
+        synchronized (sFrames) {
+            file = sFrames.get(name);
+            if (file == null) {
+                RetiredFrame retired = sRetired.remove(name);
+                if (retired != null) {
+                    file = retired.mFile;
+                    sFrames.put(name, file);
+                }
+            }
+        }
+        if (file == null) {
+            file = writeFrame(context, name, image);
+            if (file == null) {
+                return null;
+            }
+            synchronized (sFrames) {
+                sFrames.put(name, file);
+            }
+        }
+        sweep();
+        return getUri(context, name);
+    }
+
+    /**
+     * Delete the retired frames that the host has had time to read.
+     */
+    private static void sweep() {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (sFrames) {
+            Iterator<RetiredFrame> iterator = sRetired.values().iterator();
+            while (iterator.hasNext()) {
+                RetiredFrame retired = iterator.next();
+                if (now - retired.mTime < RETAIN_TIME) {
+                    break;
+                }
+                retired.mFile.delete();
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public boolean onCreate() {
+        // Frames of a previous process are not known, remove them.
+        File[] files = getDirectory(getContext()).listFiles();
+        if (files != null) {
+            synchronized (sFrames) {
+                for (File file : files) {
+                    if (!sFrames.containsValue(file) && !sRetired.containsKey(file.getName())) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Frames are read only");
+        }
+        File file;
+        String name = uri.getLastPathSegment();
+        synchronized (sFrames) {
+            file = sFrames.get(name);
+            if (file == null) {
+                RetiredFrame retired = sRetired.get(name);
+                if (retired != null) {
+                    file = retired.mFile;
+                }
+            }
+        }
+        if (file == null) {
+            throw new FileNotFoundException("No frame " + uri);
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return MIME_TYPE;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        // Frames are only added by the extension.
+        return null;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        return 0;
+    }
+
+    private static File writeFrame(Context context, String name, byte[] image) {
+        File directory = getDirectory(context);
+        File file = new File(directory, name);
+        File tmp = new File(directory, name + ".tmp");
+        FileOutputStream out = null;
+        try {
+            directory.mkdirs();
+            out = new FileOutputStream(tmp);
+            out.write(image);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Failed to rename " + tmp);
+            }
+            return file;
+        } catch (IOException e) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to store frame", e);
+            }
+            tmp.delete();
+            return null;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * A frame file waiting to be deleted.
+     */
+    private static class RetiredFrame {
+        final File mFile;
+
+        final long mTime;
+
+        RetiredFrame(File file) {
+            mFile = file;
+            mTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private static String getAuthority(Context context) {
+        return context.getPackageName() + AUTHORITY_SUFFIX;
+    }
+
+    private static Uri getUri(Context context, String name) {
+        return new Uri.Builder().scheme("content").authority(getAuthority(context))
+                .appendPath(name).build();
+    }
+
+    private static File getDirectory(Context context) {
+        return new File(context.getCacheDir(), DIRECTORY);
+    }
+
+    private static String getName(byte[] image) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(image);
+            StringBuilder name = new StringBuilder(digest.length * 2 + EXTENSION.length());
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.append(EXTENSION).toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.sonyericsson.extras.liveware.extension.util.control;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+
+import com.sonyericsson.extras.liveware.aef.registration.Registration.Device;
+import com.sonyericsson.extras.liveware.aef.registration.Registration.DeviceColumns;
+import com.sonyericsson.extras.liveware.aef.registration.Registration.Display;
+import com.sonyericsson.extras.liveware.aef.registration.Registration.DisplayColumns;
+import com.sonyericsson.extras.liveware.aef.registration.Registration.HostApp;
+import com.sonyericsson.extras.liveware.aef.registration.Registration.HostAppColumns;
+import com.sonyericsson.extras.liveware.aef.registration.Registration.Led;
+import com.sonyericsson.extras.liveware.aef.registration.Registration.LedColumns;
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
+
+import java.util.HashMap;
+
+/**
+ * Snapshot of the hardware of a host application and its accessories. It is
+ * read from the registration provider once and shared by all controls of the
+ * host in the process, so checking for a vibrator or LEDs does not cost a
+ * provider query. The snapshot is replaced when the host reports an
+ * accessory connection change. A snapshot that could not be read completely
+ * is not kept, it is read again the next time.
+ */
+public class HostCapabilities {
+
+    private static final HashMap<String, HostCapabilities> sCapabilities = new HashMap<String, HostCapabilities>();
+
+    private final long mHostAppId;
+
+    private final boolean mVibrator;
+
+    private final int mLedCount;
+
+    private final long[] mDisplayIds;
+
+    private final boolean mAccessoryConnected;
+
+    private final boolean mComplete;
+
+    private HostCapabilities(long hostAppId, boolean vibrator, int ledCount, long[] displayIds,
+                             boolean accessoryConnected, boolean complete) {
+        mHostAppId = hostAppId;
+        mVibrator = vibrator;
+        mLedCount = ledCount;
+        mDisplayIds = displayIds;
+        mAccessoryConnected = accessoryConnected;
+        mComplete = complete;
+    }
+
+    /**
+     * Get the capabilities of a host application, reading them if they are
+     * not known yet.
+     *
+     * @param context            The context.
+     * @param hostAppPackageName Package name of host application.
+     * @return The capabilities.
+     */
+    public static HostCapabilities get(Context context, String hostAppPackageName) {
+        synchronized (sCapabilities) {
+            HostCapabilities capabilities = sCapabilities.get(hostAppPackageName);
+            if (capabilities == null) {
+                capabilities = query(context, hostAppPackageName);
+                if (capabilities.mComplete) {
+                    sCapabilities.put(hostAppPackageName, capabilities);
+                }
+            }
+            return capabilities;
+        }
+    }
+
+    /**
+     * Read the capabilities of a host application again, after its
+     * accessories have changed.
+     *
+     * @param context            The context.
+     * @param hostAppPackageName Package name of host application.
+     * @return The new capabilities.
+     */
+    public static HostCapabilities refresh(Context context, String hostAppPackageName) {
+        HostCapabilities capabilities = query(context, hostAppPackageName);
+        synchronized (sCapabilities) {
+            if (capabilities.mComplete) {
+                sCapabilities.put(hostAppPackageName, capabilities);
+            } else {
+                sCapabilities.remove(hostAppPackageName);
+            }
+        }
+        return capabilities;
+    }
+
+    /**
+     * Get the host application id.
+     *
+     * @return The host application id, -1 if the host is not registered.
+     */
+    public long getHostAppId() {
+        return mHostAppId;
+    }
+
+    /**
+     * Check if any accessory of the host has a vibrator.
+     *
+     * @return True if vibrator exists.
+     */
+    public boolean hasVibrator() {
+        return mVibrator;
+    }
+
+    /**
+     * Get the number of LEDs on the accessories of the host.
+     *
+     * @return The number of LEDs.
+     */
+    public int getLedCount() {
+        return mLedCount;
+    }
+
+    /**
+     * Get the ids of the displays on the accessories of the host.
+     *
+     * @return The display ids, not to be modified.
+     */
+    public long[] getDisplayIds() {
+        return mDisplayIds;
+    }
+
+    /**
+     * Check if an accessory of the host was connected when the capabilities
+     * were read.
+     *
+     * @return True if connected.
+     */
+    public boolean isAccessoryConnected() {
+        return mAccessoryConnected;
+    }
+
+    /**
+     * Check if the capabilities were read completely.
+     *
+     * @return True if complete, false if a query failed.
+     */
+    boolean isComplete() {
+        return mComplete;
+    }
+
+    private static HostCapabilities query(Context context, String hostAppPackageName) {
+        long hostAppId = -1;
+        boolean vibrator = false;
+        boolean connected = false;
+        int ledCount = 0;
+        long[] displayIds = new long[0];
+        boolean complete = false;
+
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(HostApp.URI, new String[]{
+                    HostAppColumns._ID
+            }, HostAppColumns.PACKAGE_NAME + " = ?", new String[]{
+                    hostAppPackageName
+            }, null);
+            if (cursor == null || !cursor.moveToFirst()) {
+                return new HostCapabilities(hostAppId, vibrator, ledCount, displayIds, connected,
+                        complete);
+            }
+            hostAppId = cursor.getLong(0);
+            cursor.close();
+
+            cursor = context.getContentResolver().query(Device.URI, new String[]{
+                    DeviceColumns._ID, DeviceColumns.VIBRATOR, DeviceColumns.ACCESSORY_CONNECTED
+            }, DeviceColumns.HOST_APPLICATION_ID + " = " + hostAppId, null, null);
+            if (cursor == null) {
+                return new HostCapabilities(hostAppId, vibrator, ledCount, displayIds, connected,
+                        complete);
+            }
+            StringBuilder devices = new StringBuilder();
+            while (cursor != null && cursor.moveToNext()) {
+                if (devices.length() > 0) {
+                    devices.append(',');
+                }
+                devices.append(cursor.getLong(0));
+                vibrator |= (cursor.getInt(1) == 1);
+                connected |= (cursor.getInt(2) == 1);
+            }
+            if (cursor != null) {
+                cursor.close();
+                cursor = null;
+            }
+            if (devices.length() == 0) {
+                return new HostCapabilities(hostAppId, vibrator, ledCount, displayIds, connected,
+                        true);
+            }
+
+            cursor = context.getContentResolver().query(Display.URI, new String[]{
+                    DisplayColumns._ID
+            }, DisplayColumns.DEVICE_ID + " IN (" + devices + ")", null, null);
+            if (cursor == null) {
+                return new HostCapabilities(hostAppId, vibrator, ledCount, displayIds, connected,
+                        complete);
+            }
+            displayIds = new long[cursor.getCount()];
+            for (int i = 0; i < displayIds.length && cursor.moveToNext(); i++) {
+                displayIds[i] = cursor.getLong(0);
+            }
+            cursor.close();
+            cursor = null;
+
+            cursor = context.getContentResolver().query(Led.URI, new String[]{
+                    LedColumns._ID
+            }, LedColumns.DEVICE_ID + " IN (" + devices + ")", null, null);
+            if (cursor != null) {
+                ledCount = cursor.getCount();
+                complete = true;
+            }
+        } catch (SQLException e) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to query host capabilities", e);
+            }
+        } catch (SecurityException e) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to query host capabilities", e);
+            }
+        } catch (IllegalArgumentException e) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to query host capabilities", e);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return new HostCapabilities(hostAppId, vibrator, ledCount, displayIds, connected,
+                complete);
+    }
+}
@@ -44,6 +44,8 @@ import com.sonyericsson.extras.liveware.extension.util.Dbg;
 import com.sonyericsson.extras.liveware.extension.util.registration.DeviceInfoHelper;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 
 public class NotificationUtil {
 
@@ -60,6 +62,28 @@ public class NotificationUtil {
      */
     public static final String EVENT_ID = Notification.Event.TABLE_NAME + "." + BaseColumns._ID;
 
+    /**
+     * Lock for the source id cache
+     */
+    private static final Object sSourceIdsLock = new Object();
+
+    /**
+     * Extension specific id to source id of all sources of this extension,
+     * null when the cache has to be reloaded.
+     */
+    private static HashMap<String, Long> sSourceIds = null;
+
+    /**
+     * Incremented every time the source id cache is cleared.
+     */
+    private static int sSourceGeneration = 0;
+
+    /**
+     * Events where string built from the cached source ids, null when it has
+     * to be rebuilt.
+     */
+    private static String sEventsWhere = null;
+
     /**
      * This class can not be instantiated
      */
@@ -67,13 +91,100 @@ public class NotificationUtil {
     }
 
     /**
-     * Get source id associated with extension specific id of the source.
+     * Get source id associated with extension specific id of the source. The
+     * source ids are cached in memory after the first lookup, the cache is
+     * cleared by {@link #invalidateSourceIds()} when the sources change.
      *
      * @param context             Context with permissions to access Notification db
      * @param extensionSpecificId Extension specific identifier of the source.
      * @return Source id, INVALID_ID if not found
      */
     public static long getSourceId(Context context, String extensionSpecificId) {
+        if (extensionSpecificId == null) {
+            return querySourceId(context, null);
+        }
+        synchronized (sSourceIdsLock) {
+            if (sSourceIds == null) {
+                sSourceIds = querySourceIds(context);
+                if (sSourceIds == null) {
+                    return INVALID_ID;
+                }
+            }
+            Long sourceId = sSourceIds.get(extensionSpecificId);
+            return (sourceId != null) ? sourceId : INVALID_ID;
+        }
+    }
+
+    /**
+     * Clear the cached source ids. Shall be called whenever sources are
+     * registered, updated or removed.
+     */
+    public static void invalidateSourceIds() {
+        synchronized (sSourceIdsLock) {
+            sSourceIds = null;
+            sEventsWhere = null;
+            sSourceGeneration++;
+        }
+    }
+
+    /**
+     * Get the generation of the source id cache. The generation changes every
+     * time the sources of this extension are registered, updated or removed,
+     * so it can be used to invalidate data derived from the sources.
+     *
+     * @return The source generation.
+     */
+    public static int getSourceGeneration() {
+        synchronized (sSourceIdsLock) {
+            return sSourceGeneration;
+        }
+    }
+
+    /**
+     * Read the ids of all sources that belongs to this extension.
+     *
+     * @param context Context with permissions to access Notification db
+     * @return Map from extension specific id to source id, null on failure
+     */
+    private static HashMap<String, Long> querySourceIds(Context context) {
+        HashMap<String, Long> sourceIds = new HashMap<String, Long>();
+        Cursor cursor = null;
+        try {
+            cursor = querySources(context, new String[]{
+                    Notification.SourceColumns._ID,
+                    Notification.SourceColumns.EXTENSION_SPECIFIC_ID
+            }, null, null, null);
+            if (cursor == null) {
+                return null;
+            }
+            int idIndex = cursor.getColumnIndex(Notification.SourceColumns._ID);
+            int extensionSpecificIdIndex = cursor
+                    .getColumnIndex(Notification.SourceColumns.EXTENSION_SPECIFIC_ID);
+            while (cursor.moveToNext()) {
+                sourceIds.put(cursor.getString(extensionSpecificIdIndex), cursor.getLong(idIndex));
+            }
+        } catch (SQLException exception) {
+            return null;
+        } catch (SecurityException exception) {
+            return null;
+        } catch (IllegalArgumentException exception) {
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return sourceIds;
+    }
+
+    /**
+     * Query the source id associated with extension specific id of the source.
+     *
+     * @param context             Context with permissions to access Notification db
+     * @param extensionSpecificId Extension specific identifier of the source.
+     * @return Source id, INVALID_ID if not found
+     */
+    private static long querySourceId(Context context, String extensionSpecificId) {
         long sourceId = INVALID_ID;
         Cursor cursor = null;
 
@@ -246,6 +357,61 @@ public class NotificationUtil {
         return null;
     }
 
+    /**
+     * Add several events to Event table in one call
+     *
+     * @param context     Context with permissions to access Notification db
+     * @param eventValues The events to add.
+     * @return The number of created events, INVALID_ID on failure
+     */
+    public static int addEvents(final Context context, final ContentValues[] eventValues) {
+        if (eventValues.length == 0) {
+            return 0;
+        }
+        try {
+            return context.getContentResolver().bulkInsert(Notification.Event.URI, eventValues);
+        } catch (SQLException e) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to add events", e);
+            }
+        } catch (SecurityException e) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to add events", e);
+            }
+        } catch (IllegalArgumentException e) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to add events", e);
+            }
+        }
+        return INVALID_ID;
+    }
+
+    /**
+     * Add several events of a source to Event table in one call. The source id
+     * is set on events that have none.
+     *
+     * @param context             Context with permissions to access Notification db
+     * @param extensionSpecificId Extension specific identifier of the source.
+     * @param eventValues         The events to add.
+     * @return The number of created events, INVALID_ID on failure
+     */
+    public static int addEvents(final Context context, String extensionSpecificId,
+                                final ContentValues[] eventValues) {
+        long sourceId = getSourceId(context, extensionSpecificId);
+        if (sourceId == INVALID_ID) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to add events, no source: " + extensionSpecificId);
+            }
+            return INVALID_ID;
+        }
+        for (ContentValues values : eventValues) {
+            if (!values.containsKey(Notification.EventColumns.SOURCE_ID)) {
+                values.put(Notification.EventColumns.SOURCE_ID, sourceId);
+            }
+        }
+        return addEvents(context, eventValues);
+    }
+
     /**
      * Get source ids associated with extension.
      *
@@ -563,25 +729,42 @@ public class NotificationUtil {
      * Get where string that limits a queries to {@link Notification.Event#URI}
      * to affect events that belongs to this extension only
      *
+     * The where string is built from the cached source ids and kept until the
+     * sources change, see {@link #invalidateSourceIds()}.
+     *
      * @param context The context
      * @return The where string:
      * <p/>
      * Template: sourceId IN ( sourceId1, sourceId2, ... )
      */
     public static String getEventsWhere(Context context) {
-        ArrayList<Long> sourceIds = getSourceIds(context);
-        if (sourceIds.size() == 0) {
-            return "0";
-        }
-        // Build where clause
-        StringBuilder whereBuilder = new StringBuilder();
-        whereBuilder.append(Notification.EventColumns.SOURCE_ID + " IN ( ");
-        for (int i = 0; i < sourceIds.size() - 1; i++) {
-            whereBuilder.append(sourceIds.get(i) + ", ");
+        synchronized (sSourceIdsLock) {
+            if (sEventsWhere != null) {
+                return sEventsWhere;
+            }
+            if (sSourceIds == null) {
+                sSourceIds = querySourceIds(context);
+                if (sSourceIds == null) {
+                    return "0";
+                }
+            }
+            if (sSourceIds.size() == 0) {
+                sEventsWhere = "0";
+                return sEventsWhere;
+            }
+            ArrayList<Long> sourceIds = new ArrayList<Long>(sSourceIds.values());
+            Collections.sort(sourceIds);
+            // Build where clause
+            StringBuilder whereBuilder = new StringBuilder();
+            whereBuilder.append(Notification.EventColumns.SOURCE_ID + " IN ( ");
+            for (int i = 0; i < sourceIds.size() - 1; i++) {
+                whereBuilder.append(sourceIds.get(i)).append(", ");
+            }
+            whereBuilder.append(sourceIds.get(sourceIds.size() - 1));
+            whereBuilder.append(" )");
+            sEventsWhere = whereBuilder.toString();
+            return sEventsWhere;
         }
-        whereBuilder.append(sourceIds.get(sourceIds.size() - 1));
-        whereBuilder.append(" )");
-        return whereBuilder.toString();
     }
 
     /**
@@ -648,8 +831,12 @@ public class NotificationUtil {
             extensionWhere += " AND (" + where + ")";
         }
         DeviceInfoHelper.removeUnsafeValues(context, values);
-        return context.getContentResolver().update(Notification.Source.URI, values, extensionWhere,
-                selectionArgs);
+        try {
+            return context.getContentResolver().update(Notification.Source.URI, values,
+                    extensionWhere, selectionArgs);
+        } finally {
+            invalidateSourceIds();
+        }
     }
 
     /**
@@ -676,8 +863,12 @@ public class NotificationUtil {
         if (!TextUtils.isEmpty(where)) {
             extensionWhere += " AND (" + where + ")";
         }
-        return context.getContentResolver().delete(Notification.Source.URI, extensionWhere,
-                selectionArgs);
+        try {
+            return context.getContentResolver().delete(Notification.Source.URI, extensionWhere,
+                    selectionArgs);
+        } finally {
+            invalidateSourceIds();
+        }
 
     }
 
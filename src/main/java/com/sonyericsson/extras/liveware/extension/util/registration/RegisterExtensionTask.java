@@ -31,13 +31,18 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.sonyericsson.extras.liveware.extension.util.registration;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.provider.BaseColumns;
 
 import com.sonyericsson.extras.liveware.aef.notification.Notification;
@@ -48,6 +53,7 @@ import com.sonyericsson.extras.liveware.extension.util.ExtensionUtils;
 import com.sonyericsson.extras.liveware.extension.util.notification.NotificationUtil;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Perform extension registration or update in background
@@ -59,6 +65,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
     private final RegistrationInformation mRegistrationInformation;
     private final boolean mOnlySources;
     private IRegisterCallback mRegisterInterface;
+    private int mRoundTrips = 0;
 
     /**
      * Create register extension task
@@ -100,9 +107,46 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
 
     @Override
     protected Boolean doInBackground(Void... params) {
+        long startTime = SystemClock.elapsedRealtime();
+        mRoundTrips = 0;
+        boolean result = doRegistration();
+        if (Dbg.DEBUG) {
+            Dbg.d("Registration " + (result ? "succeeded" : "failed") + " in "
+                    + (SystemClock.elapsedRealtime() - startTime) + " ms, " + mRoundTrips
+                    + " round trips");
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of calls to the content providers made by the last
+     * registration run.
+     *
+     * @return The number of round trips.
+     */
+    public int getRoundTrips() {
+        return mRoundTrips;
+    }
+
+    /**
+     * Perform the registration requested at creation of the task.
+     *
+     * @return True if the registration succeeded.
+     */
+    private boolean doRegistration() {
+        RegistrationFingerprint fingerprint = new RegistrationFingerprint(mContext,
+                mRegistrationInformation);
+        String sourcesFingerprint = fingerprint.getSourcesFingerprint();
         if (mOnlySources) {
+            if (fingerprint.isSourcesUnchanged(sourcesFingerprint)) {
+                if (Dbg.DEBUG) {
+                    Dbg.d("Sources unchanged since last registration, skipping refresh");
+                }
+                return true;
+            }
             try {
                 registerOrUpdateSources();
+                fingerprint.store(null, sourcesFingerprint);
                 return true;
             } catch (RegisterExtensionException e) {
                 if (Dbg.DEBUG) {
@@ -111,11 +155,25 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
                 return false;
             }
         } else {
+            String extensionFingerprint = fingerprint.getExtensionFingerprint();
+            mRoundTrips += fingerprint.getQueryCount();
+            if (fingerprint.isExtensionUnchanged(extensionFingerprint) && isRegistered()) {
+                if (Dbg.DEBUG) {
+                    Dbg.d("Registration unchanged since last registration, skipping");
+                }
+                return true;
+            }
             boolean registrationSuccess = registerOrUpdateExtension();
             if (registrationSuccess) {
+                boolean hostAppsSuccess = true;
                 if (mRegistrationInformation.getRequiredWidgetApiVersion() > 0
                         || mRegistrationInformation.getRequiredControlApiVersion() > 0) {
-                    registerWithAllHostApps();
+                    hostAppsSuccess = registerWithAllHostApps();
+                }
+                // Only a complete registration may be skipped next time, a
+                // failed host app registration has to be retried.
+                if (hostAppsSuccess) {
+                    fingerprint.store(extensionFingerprint, sourcesFingerprint);
                 }
             }
             return registrationSuccess;
@@ -181,6 +239,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
      * @return True if registered
      */
     private boolean isRegistered() {
+        mRoundTrips++;
         return ExtensionUtils.getExtensionId(mContext) != ExtensionUtils.INVALID_ID;
     }
 
@@ -212,10 +271,12 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
             configurationValues.put(Registration.ExtensionColumns.PACKAGE_NAME,
                     mContext.getPackageName());
 
+            mRoundTrips++;
             Uri uri = mContext.getContentResolver().insert(Registration.Extension.URI,
                     configurationValues);
             if (uri == null) {
                 DeviceInfoHelper.removeUnsafeValues(mContext, 1, configurationValues);
+                mRoundTrips++;
                 uri = mContext.getContentResolver().insert(Registration.Extension.URI,
                         configurationValues);
                 if (uri == null) {
@@ -229,6 +290,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
             // don't exist in v1 registration table, remove them and retry
             try {
                 DeviceInfoHelper.removeUnsafeValues(mContext, 1, configurationValues);
+                mRoundTrips++;
                 Uri uri = mContext.getContentResolver().insert(Registration.Extension.URI,
                         configurationValues);
 
@@ -269,6 +331,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
         try {
             ContentValues values = mRegistrationInformation.getExtensionRegistrationConfiguration();
             DeviceInfoHelper.removeUnsafeValues(mContext, values);
+            mRoundTrips++;
             mContext.getContentResolver().update(Registration.Extension.URI,
                     values, where,
                     selectionArgs);
@@ -282,27 +345,94 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
     }
 
     /**
-     * Register or update source. This method is called from the the background
+     * Register or update sources. The sources are first applied as one batch
+     * and if the notification provider rejects the batch each source is
+     * registered separately. This method is called from the the background
      *
-     * @param extensionSpecificId The source type to register.
      * @throws RegisterExtensionException
      */
     private void registerOrUpdateSources() throws RegisterExtensionException {
+        HashMap<String, Long> oldSources = getRegisteredSources();
+        ContentValues[] sourceConfigurations = mRegistrationInformation
+                .getSourceRegistrationConfigurations();
+        String sourcesWhere = NotificationUtil.getSourcesWhere(mContext);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+
+        for (ContentValues sourceConfiguration : sourceConfigurations) {
+            String extensionSpecificId = (String) sourceConfiguration
+                    .get(Notification.SourceColumns.EXTENSION_SPECIFIC_ID);
+
+            // Package name is not required but many of the SDK utility
+            // methods are dependent of the package name.
+            sourceConfiguration.put(SourceColumns.PACKAGE_NAME, mContext.getPackageName());
+            DeviceInfoHelper.removeUnsafeValues(mContext, sourceConfiguration);
+
+            // If we find the source id in the database then we have already
+            // registered.
+            Long sourceId = oldSources.remove(extensionSpecificId);
+            if (sourceId == null) {
+                operations.add(ContentProviderOperation.newInsert(Notification.Source.URI)
+                        .withValues(sourceConfiguration).build());
+            } else {
+                operations.add(ContentProviderOperation.newUpdate(Notification.Source.URI)
+                        .withValues(sourceConfiguration)
+                        .withSelection(sourcesWhere + " AND (" + BaseColumns._ID + " = "
+                                + sourceId + ")", null).build());
+            }
+        }
+
+        // Remove any sources that are no longer used. A source that is
+        // already gone is not an error so deletes are not checked.
+        int checkedOperations = operations.size();
+        for (String deletedExtensionSpecificId : oldSources.keySet()) {
+            operations.add(ContentProviderOperation.newDelete(Notification.Source.URI)
+                    .withSelection(sourcesWhere + " AND (" + SourceColumns.EXTENSION_SPECIFIC_ID
+                            + " = ?)", new String[]{
+                            deletedExtensionSpecificId
+                    }).build());
+        }
+
+        try {
+            if (applyBatch(Notification.AUTHORITY, operations, checkedOperations)) {
+                if (Dbg.DEBUG) {
+                    Dbg.d("Sources registered in batch: " + operations.size() + " operations");
+                }
+                return;
+            }
+
+            if (Dbg.DEBUG) {
+                Dbg.d("Batch source registration failed, registering sources one by one");
+            }
+            NotificationUtil.invalidateSourceIds();
+            registerOrUpdateSourcesOneByOne(sourceConfigurations);
+        } finally {
+            // Sources may have changed, the cached source ids are reloaded on
+            // next use.
+            NotificationUtil.invalidateSourceIds();
+        }
+    }
+
+    /**
+     * Register or update sources with one provider call per source. This
+     * method is called from the the background
+     *
+     * @param sourceConfigurations The sources to register.
+     * @throws RegisterExtensionException
+     */
+    private void registerOrUpdateSourcesOneByOne(ContentValues[] sourceConfigurations)
+            throws RegisterExtensionException {
+        mRoundTrips++;
         ArrayList<String> oldExtensionSpecificIds = NotificationUtil
                 .getExtensionSpecificIds(mContext);
 
-        for (ContentValues sourceConfiguration : mRegistrationInformation
-                .getSourceRegistrationConfigurations()) {
+        for (ContentValues sourceConfiguration : sourceConfigurations) {
             String extensionSpecificId = (String) sourceConfiguration
                     .get(Notification.SourceColumns.EXTENSION_SPECIFIC_ID);
             // If we find the source id in the database then we have already
             // registered.
+            mRoundTrips++;
             long sourceId = NotificationUtil.getSourceId(mContext, extensionSpecificId);
 
-            // Package name is not required but many of the SDK utility
-            // methods are dependent of the package name.
-            sourceConfiguration.put(SourceColumns.PACKAGE_NAME, mContext.getPackageName());
-
             if (sourceId == NotificationUtil.INVALID_ID) {
                 sourceId = registerSource(sourceConfiguration);
             } else {
@@ -321,6 +451,109 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
         }
     }
 
+    /**
+     * Get the sources registered by this extension. This method is called from
+     * the the background
+     *
+     * @return Map from extension specific id to source id.
+     */
+    private HashMap<String, Long> getRegisteredSources() {
+        HashMap<String, Long> sources = new HashMap<String, Long>();
+        Cursor cursor = null;
+        try {
+            mRoundTrips++;
+            cursor = NotificationUtil.querySources(mContext, new String[]{
+                    Notification.SourceColumns._ID,
+                    Notification.SourceColumns.EXTENSION_SPECIFIC_ID
+            }, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                int idIndex = cursor.getColumnIndex(Notification.SourceColumns._ID);
+                int extensionSpecificIdIndex = cursor
+                        .getColumnIndex(Notification.SourceColumns.EXTENSION_SPECIFIC_ID);
+                do {
+                    sources.put(cursor.getString(extensionSpecificIdIndex),
+                            cursor.getLong(idIndex));
+                } while (cursor.moveToNext());
+            }
+        } catch (SQLException exception) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to query sources", exception);
+            }
+        } catch (SecurityException exception) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to query sources", exception);
+            }
+        } catch (IllegalArgumentException exception) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to query sources", exception);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Apply a list of operations in one call to a provider. This method is
+     * called from the the background
+     *
+     * @param authority         The provider authority.
+     * @param operations        The operations to apply.
+     * @param checkedOperations The number of leading operations that must
+     *                          insert or update a row to be successful.
+     * @return True if all operations were applied. False if the provider
+     * failed or does not support batches, in which case the caller shall
+     * fall back to separate calls.
+     */
+    private boolean applyBatch(String authority, ArrayList<ContentProviderOperation> operations,
+                               int checkedOperations) {
+        if (operations.isEmpty()) {
+            return true;
+        }
+        try {
+            mRoundTrips++;
+            ContentProviderResult[] results = mContext.getContentResolver().applyBatch(authority,
+                    operations);
+            if (results == null || results.length != operations.size()) {
+                return false;
+            }
+            for (int i = 0; i < checkedOperations; i++) {
+                if (results[i].uri == null
+                        && (results[i].count == null || results[i].count == 0)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (RemoteException exception) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Batch failed: " + authority, exception);
+            }
+        } catch (OperationApplicationException exception) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Batch failed: " + authority, exception);
+            }
+        } catch (UnsupportedOperationException exception) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Batch not supported: " + authority, exception);
+            }
+        } catch (SQLException exception) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Batch failed: " + authority, exception);
+            }
+        } catch (SecurityException exception) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Batch failed: " + authority, exception);
+            }
+        } catch (IllegalArgumentException exception) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Batch failed: " + authority, exception);
+            }
+        }
+        return false;
+    }
+
     /**
      * Register source. This method is called from the the background
      *
@@ -334,6 +567,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
 
         try {
             DeviceInfoHelper.removeUnsafeValues(mContext, sourceValues);
+            mRoundTrips++;
             Uri uri = mContext.getContentResolver().insert(Notification.Source.URI, sourceValues);
             if (uri == null) {
                 throw new RegisterExtensionException("failed to insert source");
@@ -363,6 +597,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
 
         try {
             DeviceInfoHelper.removeUnsafeValues(mContext, sourceValues);
+            mRoundTrips++;
             int result = NotificationUtil.updateSources(mContext, sourceValues, BaseColumns._ID
                     + " = " + sourceId, null);
 
@@ -388,6 +623,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
      */
     private void unregisterSource(String extensionSpecificId) throws RegisterExtensionException {
         try {
+            mRoundTrips++;
             int noOfDeletedRows = NotificationUtil.deleteSources(mContext,
                     SourceColumns.EXTENSION_SPECIFIC_ID + "=" + "'" + extensionSpecificId + "'",
                     null);
@@ -418,10 +654,13 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
      *                        widget functionality.
      * @param controlReceiver The control receiver for control events. Null if
      *                        no control functionality.
+     * @return True if the extension was registered with all supported host
+     * applications.
      */
-    private void registerWithAllHostApps() {
+    private boolean registerWithAllHostApps() {
         Cursor cursor = null;
         try {
+            mRoundTrips++;
             cursor = mContext.getContentResolver().query(
                     Registration.HostApp.URI,
                     new String[]{
@@ -438,11 +677,11 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
                 if (Dbg.DEBUG) {
                     Dbg.e("checkHostAppRegistration: cursor==null");
                 }
-                return;
+                return false;
             }
             if (cursor.getCount() == 0) {
                 // No host apps available.
-                return;
+                return true;
             }
 
             // Loop through the host apps.
@@ -460,6 +699,13 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
                     .getColumnIndexOrThrow(Registration.HostAppColumns.NOTIFICATION_API_VERSION);
             int widgetRefreshRateColumnIndex = cursor
                     .getColumnIndexOrThrow(Registration.HostAppColumns.WIDGET_REFRESH_RATE);
+
+            mRoundTrips++;
+            long extensionId = ExtensionUtils.getExtensionId(mContext);
+            HashMap<String, Long> registrations = getApiRegistrationIds(extensionId);
+            ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+            ArrayList<HostAppRegistration> hostAppRegistrations = new ArrayList<HostAppRegistration>();
+
             while (!cursor.isAfterLast()) {
                 String packageName = cursor.getString(packageColumnIndex);
                 long hostAppId = cursor.getLong(hostAppIdColumnIndex);
@@ -483,15 +729,46 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
                 // If widget, control or sensor was supported then register with
                 // the host app.
                 if (widgetSupported || controlSupported || sensorSupported) {
-                    registerApiRegistration(hostApplication, packageName,
-                            isHostAppRegistered(packageName), widgetSupported, controlSupported,
-                            sensorSupported,
-                            mRegistrationInformation.controlInterceptsBackButton(),
-                            mRegistrationInformation.supportsLowPowerMode());
+                    HostAppRegistration hostAppRegistration = new HostAppRegistration(
+                            hostApplication, packageName, widgetSupported, controlSupported,
+                            sensorSupported);
+                    hostAppRegistrations.add(hostAppRegistration);
+
+                    ContentValues values = getApiRegistrationValues(hostAppRegistration);
+                    Long registrationId = registrations.get(packageName);
+                    if (registrationId == null) {
+                        values.put(Registration.ApiRegistrationColumns.EXTENSION_ID, extensionId);
+                        operations.add(ContentProviderOperation
+                                .newInsert(Registration.ApiRegistration.URI)
+                                .withValues(values).build());
+                    } else {
+                        operations.add(ContentProviderOperation
+                                .newUpdate(ContentUris.withAppendedId(
+                                        Registration.ApiRegistration.URI, registrationId))
+                                .withValues(values).build());
+                    }
                 }
 
                 cursor.moveToNext();
             }
+
+            if (applyBatch(Registration.AUTHORITY, operations, operations.size())) {
+                if (Dbg.DEBUG) {
+                    Dbg.d("API registrations done in batch: " + operations.size()
+                            + " host apps");
+                }
+                return true;
+            }
+
+            // The registration provider rejected the batch, possibly because
+            // of an old database. Register with each host app separately
+            // since that path knows how to retry with API 1 values.
+            boolean success = true;
+            for (HostAppRegistration hostAppRegistration : hostAppRegistrations) {
+                success &= registerApiRegistration(hostAppRegistration,
+                        isHostAppRegistered(hostAppRegistration.packageName));
+            }
+            return success;
         } catch (SQLException exception) {
             if (Dbg.DEBUG) {
                 Dbg.e("registerWithAllHostApps: " + exception.getMessage());
@@ -509,6 +786,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
                 cursor.close();
             }
         }
+        return false;
     }
 
     /**
@@ -521,6 +799,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
     private boolean isHostAppRegistered(String packageName) {
         Cursor cursor = null;
         boolean isRegistered = false;
+        mRoundTrips++;
         long extensionId = ExtensionUtils.getExtensionId(mContext);
         String selection = Registration.ApiRegistrationColumns.EXTENSION_ID + " = " + extensionId
                 + " AND " + Registration.ApiRegistrationColumns.HOST_APPLICATION_PACKAGE + " = ?";
@@ -529,6 +808,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
         };
 
         try {
+            mRoundTrips++;
             cursor = mContext.getContentResolver().query(Registration.ApiRegistration.URI,
                     new String[]{
                             Registration.ApiRegistrationColumns.HOST_APPLICATION_PACKAGE
@@ -548,27 +828,57 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
     }
 
     /**
-     * Register our extension with a host application. Override this to provide
-     * extension specific implementation. This method is called from the the
-     * background
+     * Get all API registrations of this extension in one query. This method
+     * is called from the the background
      *
-     * @param packageName                The package name of host application.
-     * @param isRegistered               true if already registered.
-     * @param widgetApiVersionSupported  True if widget registration.
-     * @param controlApiVersionSupported True if control registration.
-     * @return True if registration was successful.
+     * @param extensionId The extension id.
+     * @return Map from host application package name to registration id.
      */
-    private boolean registerApiRegistration(HostApplicationInfo hostApplication,
-                                            String packageName, boolean isRegistered,
-                                            boolean widgetApiVersionSupported, boolean controlApiVersionSupported,
-                                            boolean sensorApiVersionSupported, boolean controlInterceptsBack,
-                                            boolean lowPowerSupport) {
-        if (Dbg.DEBUG) {
-            Dbg.d("Register API registration: " + packageName);
+    private HashMap<String, Long> getApiRegistrationIds(long extensionId) {
+        HashMap<String, Long> registrations = new HashMap<String, Long>();
+        Cursor cursor = null;
+        String selection = Registration.ApiRegistrationColumns.EXTENSION_ID + " = " + extensionId;
+        try {
+            mRoundTrips++;
+            cursor = mContext.getContentResolver().query(Registration.ApiRegistration.URI,
+                    new String[]{
+                            Registration.ApiRegistrationColumns._ID,
+                            Registration.ApiRegistrationColumns.HOST_APPLICATION_PACKAGE
+                    },
+                    selection, null, null
+            );
+            if (cursor != null && cursor.moveToFirst()) {
+                int idIndex = cursor.getColumnIndex(Registration.ApiRegistrationColumns._ID);
+                int packageIndex = cursor
+                        .getColumnIndex(Registration.ApiRegistrationColumns.HOST_APPLICATION_PACKAGE);
+                do {
+                    registrations.put(cursor.getString(packageIndex), cursor.getLong(idIndex));
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
+        return registrations;
+    }
+
+    /**
+     * Create the API registration values for a host application. This method
+     * is called from the the background
+     *
+     * @param hostAppRegistration The host application to register with.
+     * @return The values of the API registration row.
+     */
+    private ContentValues getApiRegistrationValues(HostAppRegistration hostAppRegistration) {
+        HostApplicationInfo hostApplication = hostAppRegistration.hostApplication;
+        boolean controlInterceptsBack = mRegistrationInformation.controlInterceptsBackButton();
+        boolean lowPowerSupport = mRegistrationInformation.supportsLowPowerMode();
+
         ContentValues values = new ContentValues();
-        values.put(Registration.ApiRegistrationColumns.HOST_APPLICATION_PACKAGE, packageName);
-        if (widgetApiVersionSupported) {
+        values.put(Registration.ApiRegistrationColumns.HOST_APPLICATION_PACKAGE,
+                hostAppRegistration.packageName);
+        if (hostAppRegistration.widgetApiVersionSupported) {
             // The api version inserted is based on either the supported level
             // in host app
             // or the target API version, whichever is lower.
@@ -578,14 +888,14 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
         } else {
             values.put(Registration.ApiRegistrationColumns.WIDGET_API_VERSION, 0);
         }
-        if (controlApiVersionSupported) {
+        if (hostAppRegistration.controlApiVersionSupported) {
             int apiVersion = Math.min(mRegistrationInformation.getTargetControlApiVersion(),
                     hostApplication.getControlApiVersion());
             values.put(Registration.ApiRegistrationColumns.CONTROL_API_VERSION, apiVersion);
         } else {
             values.put(Registration.ApiRegistrationColumns.CONTROL_API_VERSION, 0);
         }
-        if (sensorApiVersionSupported) {
+        if (hostAppRegistration.sensorApiVersionSupported) {
             int apiVersion = Math.min(mRegistrationInformation.getTargetSensorApiVersion(),
                     hostApplication.getControlApiVersion());
             values.put(Registration.ApiRegistrationColumns.SENSOR_API_VERSION, apiVersion);
@@ -605,12 +915,34 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
             values.put(Registration.ApiRegistrationColumns.LOW_POWER_SUPPORT, 0);
         }
 
+        return values;
+    }
+
+    /**
+     * Register our extension with a host application. Override this to provide
+     * extension specific implementation. This method is called from the the
+     * background
+     *
+     * @param hostAppRegistration The host application to register with.
+     * @param isRegistered        true if already registered.
+     * @return True if registration was successful.
+     */
+    private boolean registerApiRegistration(HostAppRegistration hostAppRegistration,
+                                            boolean isRegistered) {
+        String packageName = hostAppRegistration.packageName;
+        if (Dbg.DEBUG) {
+            Dbg.d("Register API registration: " + packageName);
+        }
+        ContentValues values = getApiRegistrationValues(hostAppRegistration);
+
         boolean res = false;
+        mRoundTrips++;
         long extensionId = ExtensionUtils.getExtensionId(mContext);
         if (!isRegistered) {
             values.put(Registration.ApiRegistrationColumns.EXTENSION_ID, extensionId);
             Uri uri = null;
             try {
+                mRoundTrips++;
 
                 uri = mContext.getContentResolver()
                         .insert(Registration.ApiRegistration.URI, values);
@@ -620,6 +952,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
                     // old
                     // database. Let's remove all API 2 values and try again
                     DeviceInfoHelper.removeUnsafeValues(mContext, 1, values);
+                    mRoundTrips++;
                     uri = mContext.getContentResolver()
                             .insert(Registration.ApiRegistration.URI, values);
                 }
@@ -628,15 +961,18 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
                 // because of an old database. Let's remove all API 2 values and
                 // try again
                 DeviceInfoHelper.removeUnsafeValues(mContext, 1, values);
+                mRoundTrips++;
                 uri = mContext.getContentResolver()
                         .insert(Registration.ApiRegistration.URI, values);
             }
             res = uri != null;
         } else {
+            mRoundTrips++;
             long _id = ExtensionUtils.getRegistrationId(mContext, packageName, extensionId);
 
             int rows = 0;
             try {
+                mRoundTrips++;
                 rows = mContext.getContentResolver().update(
                         ContentUris.withAppendedId(Registration.ApiRegistration.URI, _id), values,
                         null, null);
@@ -644,6 +980,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
                     // It's possible the registration update failed because of
                     // an old database. Let's remove all API 2 values and try again
                     DeviceInfoHelper.removeUnsafeValues(mContext, 1, values);
+                    mRoundTrips++;
                     rows = mContext.getContentResolver().update(
                             ContentUris.withAppendedId(Registration.ApiRegistration.URI, _id),
                             values,
@@ -653,6 +990,7 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
                 // It's possible the registration update failed because of an
                 // old database. Let's remove all API 2 values and try again
                 DeviceInfoHelper.removeUnsafeValues(mContext, 1, values);
+                mRoundTrips++;
                 rows = mContext.getContentResolver().update(
                         ContentUris.withAppendedId(Registration.ApiRegistration.URI, _id), values,
                         null, null);
@@ -685,4 +1023,30 @@ public class RegisterExtensionTask extends AsyncTask<Void, Void, Boolean> {
             super(string);
         }
     }
+
+    /**
+     * A host application that the extension shall register with.
+     */
+    private static class HostAppRegistration {
+
+        final HostApplicationInfo hostApplication;
+
+        final String packageName;
+
+        final boolean widgetApiVersionSupported;
+
+        final boolean controlApiVersionSupported;
+
+        final boolean sensorApiVersionSupported;
+
+        HostAppRegistration(HostApplicationInfo hostApplication, String packageName,
+                            boolean widgetApiVersionSupported, boolean controlApiVersionSupported,
+                            boolean sensorApiVersionSupported) {
+            this.hostApplication = hostApplication;
+            this.packageName = packageName;
+            this.widgetApiVersionSupported = widgetApiVersionSupported;
+            this.controlApiVersionSupported = controlApiVersionSupported;
+            this.sensorApiVersionSupported = sensorApiVersionSupported;
+        }
+    }
 }
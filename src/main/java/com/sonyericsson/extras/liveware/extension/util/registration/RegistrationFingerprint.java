@@ -0,0 +1,317 @@
+package com.sonyericsson.extras.liveware.extension.util.registration;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+
+import com.sonyericsson.extras.liveware.aef.registration.Registration;
+import com.sonyericsson.extras.liveware.extension.util.Dbg;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Stable hash of the registration content. The hash of the last successful
+ * registration is persisted so that a registration with unchanged content
+ * can be skipped without any round trips to the Smart Connect providers.
+ */
+public class RegistrationFingerprint {
+
+    private static final String PREFERENCES_NAME = "registration_fingerprint";
+
+    private static final String KEY_EXTENSION = "extension";
+
+    private static final String KEY_SOURCES = "sources";
+
+    private static final Comparator<Map.Entry<String, Object>> KEY_ORDER = new Comparator<Map.Entry<String, Object>>() {
+        @Override
+        public int compare(Map.Entry<String, Object> lhs, Map.Entry<String, Object> rhs) {
+            return lhs.getKey().compareTo(rhs.getKey());
+        }
+    };
+
+    private final Context mContext;
+
+    private final RegistrationInformation mRegistrationInformation;
+
+    private int mQueryCount = 0;
+
+    /**
+     * Create registration fingerprint
+     *
+     * @param context                 The context
+     * @param registrationInformation Information needed during registration
+     */
+    public RegistrationFingerprint(Context context, RegistrationInformation registrationInformation) {
+        if (context == null) {
+            throw new IllegalArgumentException("context == null");
+        }
+        if (registrationInformation == null) {
+            throw new IllegalArgumentException("registrationInformation == null");
+        }
+        mContext = context;
+        mRegistrationInformation = registrationInformation;
+    }
+
+    /**
+     * Forget the stored fingerprints. The next registration will be done in
+     * full.
+     *
+     * @param context The context
+     */
+    public static void clear(Context context) {
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit().clear()
+                .commit();
+    }
+
+    /**
+     * Get the fingerprint of the notification sources. No provider is
+     * queried.
+     *
+     * @return The fingerprint, null if it could not be calculated.
+     */
+    public String getSourcesFingerprint() {
+        MessageDigest digest = createDigest();
+        if (digest == null) {
+            return null;
+        }
+        update(digest, getVersionCode());
+        updateSources(digest);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Get the fingerprint of the full registration. Besides the extension
+     * content this includes the host applications and devices known by Smart
+     * Connect, so that a new host application or accessory always leads to a
+     * registration.
+     *
+     * @return The fingerprint, null if it could not be calculated.
+     */
+    public String getExtensionFingerprint() {
+        MessageDigest digest = createDigest();
+        if (digest == null) {
+            return null;
+        }
+        update(digest, getVersionCode());
+        update(digest, mRegistrationInformation.getExtensionRegistrationConfiguration());
+        update(digest, mRegistrationInformation.getRequiredControlApiVersion());
+        update(digest, mRegistrationInformation.getTargetControlApiVersion());
+        update(digest, mRegistrationInformation.getRequiredWidgetApiVersion());
+        update(digest, mRegistrationInformation.getTargetWidgetApiVersion());
+        update(digest, mRegistrationInformation.getRequiredSensorApiVersion());
+        update(digest, mRegistrationInformation.getTargetSensorApiVersion());
+        update(digest, mRegistrationInformation.getRequiredNotificationApiVersion());
+        update(digest, mRegistrationInformation.controlInterceptsBackButton() ? 1 : 0);
+        update(digest, mRegistrationInformation.supportsLowPowerMode() ? 1 : 0);
+        updateSources(digest);
+
+        if (mRegistrationInformation.getRequiredWidgetApiVersion() > 0
+                || mRegistrationInformation.getRequiredControlApiVersion() > 0
+                || mRegistrationInformation.getRequiredSensorApiVersion() > 0) {
+            if (!updateTable(digest, Registration.HostApp.URI, new String[]{
+                    Registration.HostAppColumns._ID,
+                    Registration.HostAppColumns.PACKAGE_NAME,
+                    Registration.HostAppColumns.VERSION,
+                    Registration.HostAppColumns.WIDGET_API_VERSION,
+                    Registration.HostAppColumns.CONTROL_API_VERSION,
+                    Registration.HostAppColumns.SENSOR_API_VERSION,
+                    Registration.HostAppColumns.NOTIFICATION_API_VERSION,
+                    Registration.HostAppColumns.WIDGET_REFRESH_RATE
+            }, Registration.HostAppColumns._ID)) {
+                return null;
+            }
+            if (!updateTable(digest, Registration.Device.URI, new String[]{
+                    Registration.DeviceColumns._ID,
+                    Registration.DeviceColumns.HOST_APPLICATION_ID,
+                    Registration.DeviceColumns.MODEL,
+                    Registration.DeviceColumns.TYPE
+            }, Registration.DeviceColumns._ID)) {
+                return null;
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Get the number of provider queries made while calculating fingerprints.
+     *
+     * @return The number of queries.
+     */
+    public int getQueryCount() {
+        return mQueryCount;
+    }
+
+    /**
+     * Check if the sources fingerprint equals the one stored at the last
+     * successful registration.
+     *
+     * @param fingerprint The current fingerprint.
+     * @return True if the sources are unchanged.
+     */
+    public boolean isSourcesUnchanged(String fingerprint) {
+        return fingerprint != null && fingerprint.equals(getPreferences().getString(KEY_SOURCES, null));
+    }
+
+    /**
+     * Check if the extension fingerprint equals the one stored at the last
+     * successful registration.
+     *
+     * @param fingerprint The current fingerprint.
+     * @return True if the registration is unchanged.
+     */
+    public boolean isExtensionUnchanged(String fingerprint) {
+        return fingerprint != null
+                && fingerprint.equals(getPreferences().getString(KEY_EXTENSION, null));
+    }
+
+    /**
+     * Store the fingerprints after a successful registration.
+     *
+     * @param extensionFingerprint The extension fingerprint, null if only the
+     *                             sources were registered.
+     * @param sourcesFingerprint   The sources fingerprint.
+     */
+    public void store(String extensionFingerprint, String sourcesFingerprint) {
+        SharedPreferences.Editor editor = getPreferences().edit();
+        if (extensionFingerprint != null) {
+            editor.putString(KEY_EXTENSION, extensionFingerprint);
+        }
+        if (sourcesFingerprint != null) {
+            editor.putString(KEY_SOURCES, sourcesFingerprint);
+        } else {
+            editor.remove(KEY_SOURCES);
+        }
+        editor.commit();
+    }
+
+    private SharedPreferences getPreferences() {
+        return mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private int getVersionCode() {
+        try {
+            return mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0).versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    private void updateSources(MessageDigest digest) {
+        if (mRegistrationInformation.getRequiredNotificationApiVersion() > 0) {
+            ContentValues[] sources = mRegistrationInformation.getSourceRegistrationConfigurations();
+            update(digest, sources.length);
+            for (ContentValues source : sources) {
+                update(digest, source);
+            }
+        }
+    }
+
+    /**
+     * Add all rows of a Smart Connect table to the digest.
+     *
+     * @return False if the table could not be read.
+     */
+    private boolean updateTable(MessageDigest digest, Uri uri, String[] projection,
+                                String sortOrder) {
+        Cursor cursor = null;
+        try {
+            mQueryCount++;
+            cursor = mContext.getContentResolver().query(uri, projection, null, null, sortOrder);
+            if (cursor == null) {
+                return false;
+            }
+            update(digest, cursor.getCount());
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < projection.length; i++) {
+                    update(digest, cursor.getString(i));
+                }
+            }
+            return true;
+        } catch (SQLException exception) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to query " + uri, exception);
+            }
+        } catch (SecurityException exception) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to query " + uri, exception);
+            }
+        } catch (IllegalArgumentException exception) {
+            if (Dbg.DEBUG) {
+                Dbg.w("Failed to query " + uri, exception);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return false;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            if (Dbg.DEBUG) {
+                Dbg.e("SHA-1 not available", e);
+            }
+            return null;
+        }
+    }
+
+    private static void update(MessageDigest digest, ContentValues values) {
+        if (values == null) {
+            update(digest, -1);
+            return;
+        }
+        ArrayList<Map.Entry<String, Object>> entries = new ArrayList<Map.Entry<String, Object>>(
+                values.valueSet());
+        Collections.sort(entries, KEY_ORDER);
+        update(digest, entries.size());
+        for (Map.Entry<String, Object> entry : entries) {
+            update(digest, entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof byte[]) {
+                update(digest, Arrays.toString((byte[]) value));
+            } else {
+                update(digest, value == null ? null : value.toString());
+            }
+        }
+    }
+
+    private static void update(MessageDigest digest, int value) {
+        update(digest, Integer.toString(value));
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update((byte) 1);
+        } else {
+            try {
+                digest.update(value.getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                digest.update(value.getBytes());
+            }
+        }
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
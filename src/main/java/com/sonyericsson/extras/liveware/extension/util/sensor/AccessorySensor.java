@@ -43,14 +43,28 @@ import com.sonyericsson.extras.liveware.aef.registration.Registration;
 import com.sonyericsson.extras.liveware.aef.sensor.Sensor;
 import com.sonyericsson.extras.liveware.extension.util.Dbg;
 
-import java.io.DataInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * The accessory sensor class is used to interact with a sensor on an accessory.
  */
 public class AccessorySensor {
 
+    /**
+     * Max number of events read into one batch for a per event listener.
+     * Events that are already available are delivered with one message.
+     */
+    private static final int MAX_COALESCED_EVENTS = 16;
+
+    /**
+     * Number of batches that can be waiting for delivery.
+     */
+    private static final int BATCH_POOL_SIZE = 4;
+
     private final Context mContext;
 
     private final String mHostAppPackageName;
@@ -79,7 +93,18 @@ public class AccessorySensor {
 
     private int mInterruptMode;
 
-    private AccessorySensorEventListener mListener = null;
+    // Read on the sensor thread, cleared on the main thread
+    private volatile AccessorySensorEventListener mListener = null;
+
+    private volatile AccessorySensorEventBatchListener mBatchListener = null;
+
+    private int mBatchSize;
+
+    private long mBatchTime;
+
+    private boolean mDeliverOnSensorThread;
+
+    private File mRecordingFile = null;
 
     /**
      * Create accessory sensor. This constructor is normally not called
@@ -126,6 +151,65 @@ public class AccessorySensor {
         }
 
         mListener = listener;
+        mBatchListener = null;
+        mDeliverOnSensorThread = false;
+        mSensorRate = sensorRate;
+        mInterruptMode = interruptMode;
+
+        openSocket();
+    }
+
+    /**
+     * Register a sensor event listener that gets events in batches. A batch
+     * is delivered when it holds maxEvents events or when its events span
+     * maxTime milliseconds of sensor time. It is only possible to have one
+     * listener per sensor.
+     *
+     * @param listener      The event batch listener.
+     * @param sensorRate    The sensor rate.
+     * @param interruptMode The interrupt mode.
+     * @param maxEvents     Max number of events per batch.
+     * @param maxTime       Max sensor time in milliseconds spanned by a batch,
+     *                      0 for no limit.
+     */
+    public void registerBatchListener(final AccessorySensorEventBatchListener listener,
+                                      final int sensorRate, final int interruptMode, final int maxEvents,
+                                      final long maxTime) throws AccessorySensorException {
+        registerBatchListener(listener, sensorRate, interruptMode, maxEvents, maxTime, false);
+    }
+
+    /**
+     * Register a sensor event listener that gets events in batches, see
+     * {@link #registerBatchListener(AccessorySensorEventBatchListener, int, int, int, long)}.
+     * <p/>
+     * A listener called on the sensor thread avoids a message per batch to
+     * the main thread, but must not block and must post any UI work itself.
+     *
+     * @param listener       The event batch listener.
+     * @param sensorRate     The sensor rate.
+     * @param interruptMode  The interrupt mode.
+     * @param maxEvents      Max number of events per batch.
+     * @param maxTime        Max sensor time in milliseconds spanned by a
+     *                       batch, 0 for no limit.
+     * @param onSensorThread True to call the listener on the thread reading
+     *                       the sensor socket instead of the main thread.
+     */
+    public void registerBatchListener(final AccessorySensorEventBatchListener listener,
+                                      final int sensorRate, final int interruptMode, final int maxEvents,
+                                      final long maxTime, final boolean onSensorThread)
+            throws AccessorySensorException {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener == null");
+        }
+        if (maxEvents < 1) {
+            throw new IllegalArgumentException("maxEvents < 1");
+        }
+
+        mListener = null;
+        mBatchListener = listener;
+        mBatchSize = maxEvents;
+        mBatchTime = maxTime;
+        mDeliverOnSensorThread = onSensorThread;
         mSensorRate = sensorRate;
         mInterruptMode = interruptMode;
 
@@ -167,10 +251,22 @@ public class AccessorySensor {
      */
     public void unregisterListener() {
         mListener = null;
+        mBatchListener = null;
 
         closeSocket();
     }
 
+    /**
+     * Record the sensor stream to a file. The raw frames are appended to the
+     * file from the next time a listener is registered, and can be replayed
+     * with {@link AccessorySensorReplayer}.
+     *
+     * @param file The file to append to, null to stop recording.
+     */
+    public void setRecordingFile(final File file) {
+        mRecordingFile = file;
+    }
+
     /**
      * Get the sensor id.
      *
@@ -257,9 +353,13 @@ public class AccessorySensor {
             // Start server listening thread
             mServerThread = new ServerThread(new Handler() {
                 public void handleMessage(Message msg) {
-                    AccessorySensorEvent accessorySensorEvent = (AccessorySensorEvent) msg.obj;
-                    if (accessorySensorEvent != null && mListener != null) {
-                        mListener.onSensorEvent(accessorySensorEvent);
+                    AccessorySensorEventReader.Batch batch = (AccessorySensorEventReader.Batch) msg.obj;
+                    if (batch != null) {
+                        try {
+                            deliver(batch.getEvents(), batch.getCount());
+                        } finally {
+                            batch.release();
+                        }
                     }
                 }
             });
@@ -339,24 +439,24 @@ public class AccessorySensor {
     }
 
     /**
-     * Decodes data from the socket
+     * Deliver events to the registered listener.
      *
-     * @param inStream The data stream
-     * @return The sensor event.
+     * @param events The events.
+     * @param count  The number of events.
      */
-    private AccessorySensorEvent decodeSensorData(DataInputStream inStream) throws IOException {
-        int totalLength = inStream.readInt();
-        if (totalLength == 0) {
-            return null;
+    private void deliver(AccessorySensorEvent[] events, int count) {
+        // The listeners may be cleared by another thread while delivering
+        AccessorySensorEventBatchListener batchListener = mBatchListener;
+        if (batchListener != null) {
+            batchListener.onSensorEvents(events, count);
+            return;
         }
-        int accuracy = inStream.readInt();
-        long timestamp = inStream.readLong();
-        int sensorValueCount = inStream.readInt();
-        float[] sensorValues = new float[sensorValueCount];
-        for (int i = 0; i < sensorValueCount; i++) {
-            sensorValues[i] = inStream.readFloat();
+        AccessorySensorEventListener listener = mListener;
+        if (listener != null) {
+            for (int i = 0; i < count; i++) {
+                listener.onSensorEvent(events[i]);
+            }
         }
-        return new AccessorySensorEvent(accuracy, timestamp, sensorValues);
     }
 
     /**
@@ -374,23 +474,76 @@ public class AccessorySensor {
             mHandler = handler;
         }
 
+        // Registration state when the thread was started, so that a later
+        // change on the main thread does not affect this stream.
+        private final File mRecordingFile = AccessorySensor.this.mRecordingFile;
+
+        private final boolean mDeliverOnSensorThread = AccessorySensor.this.mDeliverOnSensorThread;
+
+        private final boolean mBatch = mBatchListener != null;
+
+        private final int mBatchSize = AccessorySensor.this.mBatchSize;
+
+        private final long mBatchTime = AccessorySensor.this.mBatchTime;
+
+        /**
+         * Create the reader for the registered listener.
+         *
+         * @param inputStream The socket stream.
+         * @return The reader.
+         */
+        private AccessorySensorEventReader createReader(InputStream inputStream) {
+            if (mBatch) {
+                return new AccessorySensorEventReader(inputStream, mBatchSize, mBatchTime, false,
+                        BATCH_POOL_SIZE);
+            } else {
+                return new AccessorySensorEventReader(inputStream, MAX_COALESCED_EVENTS, 0, true,
+                        BATCH_POOL_SIZE);
+            }
+        }
+
         @Override
         public void run() {
+            InputStream inStream = null;
             try {
-                DataInputStream inStream = new DataInputStream(mLocalServerSocket.accept()
-                        .getInputStream());
+                inStream = mLocalServerSocket.accept().getInputStream();
+                if (mRecordingFile != null) {
+                    inStream = new AccessorySensorRecorder(inStream, new BufferedOutputStream(
+                            new FileOutputStream(mRecordingFile, true)));
+                }
+                AccessorySensorEventReader reader = createReader(inStream);
                 while (!isInterrupted()) {
-                    AccessorySensorEvent event = decodeSensorData(inStream);
-                    if (event != null) {
-                        Message msg = new Message();
-                        msg.obj = event;
-                        mHandler.sendMessage(msg);
+                    AccessorySensorEventReader.Batch batch = reader.read();
+                    if (batch == null) {
+                        break;
+                    }
+                    if (mDeliverOnSensorThread) {
+                        try {
+                            deliver(batch.getEvents(), batch.getCount());
+                        } finally {
+                            batch.release();
+                        }
+                    } else {
+                        mHandler.obtainMessage(0, batch).sendToTarget();
                     }
                 }
+                if (Dbg.DEBUG) {
+                    Dbg.d("Sensor events dropped: " + reader.getDroppedEvents());
+                }
             } catch (IOException e) {
                 if (Dbg.DEBUG) {
                     Dbg.w(e.getMessage(), e);
                 }
+            } finally {
+                if (inStream instanceof AccessorySensorRecorder) {
+                    try {
+                        inStream.close();
+                    } catch (IOException e) {
+                        if (Dbg.DEBUG) {
+                            Dbg.w(e.getMessage(), e);
+                        }
+                    }
+                }
             }
         }
     }
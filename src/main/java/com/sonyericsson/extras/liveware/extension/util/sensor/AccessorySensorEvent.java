@@ -33,13 +33,17 @@ package com.sonyericsson.extras.liveware.extension.util.sensor;
 
 /**
  * A sensor event from an accessory.
+ * <p/>
+ * Events delivered by {@link AccessorySensor} are pooled and reused for later
+ * samples. An event, and the array returned by {@link #getSensorValues()}, is
+ * only valid during the listener callback. Copy the values to keep them.
  */
 public class AccessorySensorEvent {
-    private final int mAccuracy;
+    private int mAccuracy;
 
-    private final long mTimestamp;
+    private long mTimestamp;
 
-    private final float[] mVal;
+    private float[] mVal;
 
     /**
      * Create a sensor event.
@@ -56,6 +60,38 @@ public class AccessorySensorEvent {
         mVal = sensorValues;
     }
 
+    /**
+     * Create an empty sensor event to be filled by a reader.
+     */
+    AccessorySensorEvent() {
+        mVal = new float[0];
+    }
+
+    /**
+     * Set accuracy and time of a pooled event.
+     *
+     * @param accuracy  The accuracy.
+     * @param timestamp The time in nanoseconds when the event fired.
+     */
+    void set(int accuracy, long timestamp) {
+        mAccuracy = accuracy;
+        mTimestamp = timestamp;
+    }
+
+    /**
+     * Get the value array of a pooled event, reallocated only if the number
+     * of values changes.
+     *
+     * @param count The number of values.
+     * @return The value array.
+     */
+    float[] obtainSensorValues(int count) {
+        if (mVal.length != count) {
+            mVal = new float[count];
+        }
+        return mVal;
+    }
+
     /**
      * Get data values from sensor The length of the array is dependent on the
      * sensor.
@@ -0,0 +1,20 @@
+package com.sonyericsson.extras.liveware.extension.util.sensor;
+
+/**
+ * The sensor event batch listener is used to listen for sensor events
+ * delivered several at a time.
+ *
+ * @see AccessorySensor#registerBatchListener
+ */
+public interface AccessorySensorEventBatchListener {
+
+    /**
+     * Called when a batch of sensor events is received. The events are
+     * pooled and only valid during the callback.
+     *
+     * @param accessorySensorEvents The received sensor events, oldest first.
+     * @param count                 The number of valid events in the array.
+     */
+    public void onSensorEvents(AccessorySensorEvent[] accessorySensorEvents, int count);
+
+}
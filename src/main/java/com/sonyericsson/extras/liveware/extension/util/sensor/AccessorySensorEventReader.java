@@ -0,0 +1,245 @@
+package com.sonyericsson.extras.liveware.extension.util.sensor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Decodes sensor frames from a stream into pooled batches of events. The
+ * stream is read in bulk into one buffer and the frames are decoded from the
+ * buffer, so no objects are allocated per sample once the pool is warm.
+ * <p/>
+ * A frame is: total length (int, 0 for an empty frame), accuracy (int),
+ * timestamp (long), value count (int) and the values (float), big endian.
+ * <p/>
+ * The reader does not depend on the Android framework, so it can also be used
+ * with any Java input stream.
+ */
+public class AccessorySensorEventReader {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private static final int HEADER_SIZE = 16;
+
+    private final InputStream mInputStream;
+
+    private final int mMaxEvents;
+
+    private final long mMaxSpanNanos;
+
+    private final boolean mFlushWhenIdle;
+
+    private final ArrayBlockingQueue<Batch> mFreeBatches;
+
+    private final AccessorySensorEvent mScratchEvent = new AccessorySensorEvent();
+
+    private byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    private int mPosition = 0;
+
+    private int mLimit = 0;
+
+    private int mDroppedEvents = 0;
+
+    /**
+     * Create a sensor event reader.
+     *
+     * @param inputStream   The stream to read frames from.
+     * @param maxEvents     Max number of events in a batch.
+     * @param maxSpanMillis A batch is closed when its events span this many
+     *                      milliseconds of sensor time, 0 for no limit.
+     * @param flushWhenIdle True to close a batch as soon as no more data can
+     *                      be read without blocking.
+     * @param poolSize      Number of batches in the pool.
+     */
+    public AccessorySensorEventReader(InputStream inputStream, int maxEvents, long maxSpanMillis,
+                                      boolean flushWhenIdle, int poolSize) {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("inputStream == null");
+        }
+        if (maxEvents < 1) {
+            throw new IllegalArgumentException("maxEvents < 1");
+        }
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize < 1");
+        }
+        mInputStream = inputStream;
+        mMaxEvents = maxEvents;
+        mMaxSpanNanos = maxSpanMillis * 1000000L;
+        mFlushWhenIdle = flushWhenIdle;
+        mFreeBatches = new ArrayBlockingQueue<Batch>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            mFreeBatches.add(new Batch(this, maxEvents));
+        }
+    }
+
+    /**
+     * Read the next batch of events. Blocks until a batch is complete. The
+     * batch must be released when the events have been delivered.
+     *
+     * @return The batch, or null if the stream ended before any event of the
+     * batch was read.
+     * @throws IOException If the stream could not be read.
+     */
+    public Batch read() throws IOException {
+        Batch batch = mFreeBatches.poll();
+        try {
+            while (batch == null) {
+                // All batches are still being delivered, drop samples rather
+                // than letting the socket fall behind.
+                if (!readFrame(mScratchEvent)) {
+                    continue;
+                }
+                mDroppedEvents++;
+                batch = mFreeBatches.poll();
+            }
+            while (batch.mCount < mMaxEvents) {
+                if (batch.mCount > 0 && mFlushWhenIdle && !isFrameAvailable()) {
+                    break;
+                }
+                AccessorySensorEvent event = batch.mEvents[batch.mCount];
+                if (!readFrame(event)) {
+                    continue;
+                }
+                batch.mCount++;
+                if (mMaxSpanNanos > 0
+                        && event.getTimestamp() - batch.mEvents[0].getTimestamp() >= mMaxSpanNanos) {
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            if (batch == null) {
+                return null;
+            }
+            if (batch.mCount == 0) {
+                batch.release();
+                return null;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Get the number of events dropped because no batch was free.
+     *
+     * @return The number of dropped events.
+     */
+    public int getDroppedEvents() {
+        return mDroppedEvents;
+    }
+
+    /**
+     * Decode one frame into an event.
+     *
+     * @return False if the frame was empty.
+     */
+    private boolean readFrame(AccessorySensorEvent event) throws IOException {
+        ensure(4);
+        int totalLength = readInt();
+        if (totalLength == 0) {
+            return false;
+        }
+        ensure(HEADER_SIZE);
+        int accuracy = readInt();
+        long timestamp = ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+        int sensorValueCount = readInt();
+        if (sensorValueCount < 0) {
+            throw new IOException("Invalid sensor value count " + sensorValueCount);
+        }
+        ensure(sensorValueCount * 4);
+        float[] sensorValues = event.obtainSensorValues(sensorValueCount);
+        for (int i = 0; i < sensorValueCount; i++) {
+            sensorValues[i] = Float.intBitsToFloat(readInt());
+        }
+        event.set(accuracy, timestamp);
+        return true;
+    }
+
+    private int readInt() {
+        byte[] buffer = mBuffer;
+        int position = mPosition;
+        mPosition = position + 4;
+        return (buffer[position] << 24) | ((buffer[position + 1] & 0xff) << 16)
+                | ((buffer[position + 2] & 0xff) << 8) | (buffer[position + 3] & 0xff);
+    }
+
+    /**
+     * Check if the start of the next frame can be read without blocking.
+     */
+    private boolean isFrameAvailable() throws IOException {
+        return mLimit - mPosition >= 4 || mInputStream.available() > 0;
+    }
+
+    /**
+     * Make sure that at least the given number of bytes are in the buffer,
+     * reading as much as is available from the stream.
+     */
+    private void ensure(int count) throws IOException {
+        if (mLimit - mPosition >= count) {
+            return;
+        }
+        if (count > mBuffer.length) {
+            byte[] buffer = new byte[Math.max(count, mBuffer.length * 2)];
+            System.arraycopy(mBuffer, mPosition, buffer, 0, mLimit - mPosition);
+            mBuffer = buffer;
+        } else {
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, mLimit - mPosition);
+        }
+        mLimit -= mPosition;
+        mPosition = 0;
+        while (mLimit < count) {
+            int read = mInputStream.read(mBuffer, mLimit, mBuffer.length - mLimit);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            mLimit += read;
+        }
+    }
+
+    /**
+     * A batch of pooled events.
+     */
+    public static final class Batch {
+
+        private final AccessorySensorEventReader mReader;
+
+        private final AccessorySensorEvent[] mEvents;
+
+        private int mCount;
+
+        private Batch(AccessorySensorEventReader reader, int size) {
+            mReader = reader;
+            mEvents = new AccessorySensorEvent[size];
+            for (int i = 0; i < size; i++) {
+                mEvents[i] = new AccessorySensorEvent();
+            }
+        }
+
+        /**
+         * Get the events. Only the first {@link #getCount()} are valid.
+         *
+         * @return The events, oldest first.
+         */
+        public AccessorySensorEvent[] getEvents() {
+            return mEvents;
+        }
+
+        /**
+         * Get the number of events in the batch.
+         *
+         * @return The number of events.
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * Return the batch to the pool of the reader.
+         */
+        public void release() {
+            mCount = 0;
+            mReader.mFreeBatches.offer(this);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.sonyericsson.extras.liveware.extension.util.sensor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Records a sensor stream. Every byte read from the sensor socket is copied
+ * unchanged to the recording, so the recording is a sequence of raw sensor
+ * frames that can be fed back by {@link AccessorySensorReplayer}.
+ */
+public class AccessorySensorRecorder extends FilterInputStream {
+
+    private final OutputStream mRecording;
+
+    /**
+     * Create a recorder.
+     *
+     * @param in        The sensor stream.
+     * @param recording The stream to append the frames to. Should be
+     *                  buffered, it is closed with the recorder.
+     */
+    public AccessorySensorRecorder(InputStream in, OutputStream recording) {
+        super(in);
+        if (recording == null) {
+            throw new IllegalArgumentException("recording == null");
+        }
+        mRecording = recording;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            mRecording.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if (read > 0) {
+            mRecording.write(buffer, offset, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        // Skipped bytes would be missing in the recording.
+        long skipped = 0;
+        while (skipped < count && read() >= 0) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            mRecording.close();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.sonyericsson.extras.liveware.extension.util.sensor;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays a recording made by {@link AccessorySensorRecorder} through the
+ * same decoding and delivery as a live sensor, either paced by the frame
+ * timestamps or as fast as possible. Does not depend on the Android
+ * framework, so decode throughput and listener latency can be measured on
+ * any Java VM:
+ * <p/>
+ * <pre>
+ * java AccessorySensorReplayer recording.bin [realtime] [maxEvents] [maxTimeMs]
+ * </pre>
+ */
+public class AccessorySensorReplayer {
+
+    private static final int HEADER_SIZE = 20;
+
+    private final InputStream mRecording;
+
+    private final boolean mRealTime;
+
+    private int mEvents;
+
+    private int mBatches;
+
+    private long mDurationNanos;
+
+    private long mTotalLatencyNanos;
+
+    private long mMaxLatencyNanos;
+
+    private long mStartNanos;
+
+    private long mFirstTimestamp;
+
+    /**
+     * Create a replayer.
+     *
+     * @param recording The recording.
+     * @param realTime  True to release the frames at the pace they were
+     *                  recorded, false to replay as fast as possible.
+     */
+    public AccessorySensorReplayer(InputStream recording, boolean realTime) {
+        if (recording == null) {
+            throw new IllegalArgumentException("recording == null");
+        }
+        mRecording = recording;
+        mRealTime = realTime;
+    }
+
+    /**
+     * Replay the recording to a per event listener. Frames that are already
+     * available are coalesced, as for a live sensor.
+     *
+     * @param listener The listener.
+     * @throws IOException If the recording could not be read.
+     */
+    public void replay(AccessorySensorEventListener listener) throws IOException {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener == null");
+        }
+        replay(new AccessorySensorEventReader(new PacedStream(), 16, 0, true, 4), listener, null);
+    }
+
+    /**
+     * Replay the recording to a batch listener.
+     *
+     * @param listener  The listener.
+     * @param maxEvents Max number of events per batch.
+     * @param maxTime   Max sensor time in milliseconds spanned by a batch, 0
+     *                  for no limit.
+     * @throws IOException If the recording could not be read.
+     */
+    public void replay(AccessorySensorEventBatchListener listener, int maxEvents, long maxTime)
+            throws IOException {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener == null");
+        }
+        replay(new AccessorySensorEventReader(new PacedStream(), maxEvents, maxTime, false, 4),
+                null, listener);
+    }
+
+    private void replay(AccessorySensorEventReader reader, AccessorySensorEventListener listener,
+                        AccessorySensorEventBatchListener batchListener) throws IOException {
+        mEvents = 0;
+        mBatches = 0;
+        mTotalLatencyNanos = 0;
+        mMaxLatencyNanos = 0;
+        mStartNanos = System.nanoTime();
+        try {
+            AccessorySensorEventReader.Batch batch;
+            while ((batch = reader.read()) != null) {
+                try {
+                    AccessorySensorEvent[] events = batch.getEvents();
+                    int count = batch.getCount();
+                    if (batchListener != null) {
+                        batchListener.onSensorEvents(events, count);
+                    } else {
+                        for (int i = 0; i < count; i++) {
+                            listener.onSensorEvent(events[i]);
+                        }
+                    }
+                    if (mRealTime) {
+                        // Latency of the oldest event in the batch, measured
+                        // from the time its frame was released.
+                        long latency = System.nanoTime() - mStartNanos
+                                - (events[0].getTimestamp() - mFirstTimestamp);
+                        mTotalLatencyNanos += latency;
+                        mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latency);
+                    }
+                    mEvents += count;
+                    mBatches++;
+                } finally {
+                    batch.release();
+                }
+            }
+        } finally {
+            mDurationNanos = System.nanoTime() - mStartNanos;
+        }
+    }
+
+    /**
+     * Get the number of events delivered by the last replay.
+     *
+     * @return The number of events.
+     */
+    public int getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * Get the number of listener callbacks, or batches, of the last replay.
+     *
+     * @return The number of batches.
+     */
+    public int getBatches() {
+        return mBatches;
+    }
+
+    /**
+     * Get the duration of the last replay.
+     *
+     * @return The duration in nanoseconds.
+     */
+    public long getDurationNanos() {
+        return mDurationNanos;
+    }
+
+    /**
+     * Get the average delivery latency of the last real time replay.
+     *
+     * @return The latency in nanoseconds, 0 if not replayed in real time.
+     */
+    public long getAverageLatencyNanos() {
+        return (mBatches > 0) ? mTotalLatencyNanos / mBatches : 0;
+    }
+
+    /**
+     * Get the max delivery latency of the last real time replay.
+     *
+     * @return The latency in nanoseconds, 0 if not replayed in real time.
+     */
+    public long getMaxLatencyNanos() {
+        return mMaxLatencyNanos;
+    }
+
+    /**
+     * Replay a recording file and print the statistics.
+     *
+     * @param args Recording file, optionally "realtime", max events and max
+     *             time in milliseconds for a batch listener.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: AccessorySensorReplayer <recording> [realtime] [maxEvents] [maxTimeMs]");
+            return;
+        }
+        boolean realTime = args.length > 1 && "realtime".equals(args[1]);
+        InputStream in = new BufferedInputStream(new FileInputStream(args[0]), 64 * 1024);
+        try {
+            AccessorySensorReplayer replayer = new AccessorySensorReplayer(in, realTime);
+            if (args.length > 2) {
+                replayer.replay(new AccessorySensorEventBatchListener() {
+                    @Override
+                    public void onSensorEvents(AccessorySensorEvent[] events, int count) {
+                    }
+                }, Integer.parseInt(args[2]), args.length > 3 ? Long.parseLong(args[3]) : 0);
+            } else {
+                replayer.replay(new AccessorySensorEventListener() {
+                    @Override
+                    public void onSensorEvent(AccessorySensorEvent event) {
+                    }
+                });
+            }
+            long duration = replayer.getDurationNanos();
+            System.out.println("events: " + replayer.getEvents());
+            System.out.println("batches: " + replayer.getBatches());
+            System.out.println("duration ms: " + duration / 1000000);
+            if (duration > 0) {
+                System.out.println("events/s: " + replayer.getEvents() * 1000000000L / duration);
+            }
+            if (realTime) {
+                System.out.println("avg latency us: " + replayer.getAverageLatencyNanos() / 1000);
+                System.out.println("max latency us: " + replayer.getMaxLatencyNanos() / 1000);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Releases the recording one frame at a time. In real time mode a frame
+     * is only released when its timestamp, relative to the first frame, has
+     * passed since the replay started.
+     */
+    private class PacedStream extends InputStream {
+
+        private final DataInputStream mIn = new DataInputStream(mRecording);
+
+        private byte[] mFrame = new byte[HEADER_SIZE];
+
+        private int mPosition = 0;
+
+        private int mLimit = 0;
+
+        private boolean mFirst = true;
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return mFrame[mPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int read = Math.min(count, mLimit - mPosition);
+            System.arraycopy(mFrame, mPosition, buffer, offset, read);
+            mPosition += read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (mPosition < mLimit || mRealTime) {
+                // In real time the next frame is not available before it is
+                // due.
+                return mLimit - mPosition;
+            }
+            return mIn.available();
+        }
+
+        /**
+         * Load the next frame if the current one has been read.
+         *
+         * @return False at the end of the recording.
+         */
+        private boolean fill() throws IOException {
+            if (mPosition < mLimit) {
+                return true;
+            }
+            try {
+                int totalLength = mIn.readInt();
+                putInt(0, totalLength);
+                mLimit = 4;
+                mPosition = 0;
+                if (totalLength == 0) {
+                    return true;
+                }
+                mIn.readFully(mFrame, 4, HEADER_SIZE - 4);
+                int valueCount = getInt(16);
+                if (valueCount < 0) {
+                    throw new IOException("Invalid sensor value count " + valueCount);
+                }
+                int size = HEADER_SIZE + valueCount * 4;
+                if (mFrame.length < size) {
+                    byte[] frame = new byte[size];
+                    System.arraycopy(mFrame, 0, frame, 0, HEADER_SIZE);
+                    mFrame = frame;
+                }
+                mIn.readFully(mFrame, HEADER_SIZE, size - HEADER_SIZE);
+                mLimit = size;
+            } catch (EOFException e) {
+                mPosition = 0;
+                mLimit = 0;
+                return false;
+            }
+            long timestamp = ((long) getInt(8) << 32) | (getInt(12) & 0xffffffffL);
+            if (mFirst) {
+                mFirst = false;
+                mFirstTimestamp = timestamp;
+            } else if (mRealTime) {
+                waitUntil(mStartNanos + timestamp - mFirstTimestamp);
+            }
+            return true;
+        }
+
+        private void waitUntil(long nanoTime) throws IOException {
+            long delay;
+            while ((delay = nanoTime - System.nanoTime()) > 0) {
+                try {
+                    Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Replay interrupted");
+                }
+            }
+        }
+
+        private int getInt(int position) {
+            return (mFrame[position] << 24) | ((mFrame[position + 1] & 0xff) << 16)
+                    | ((mFrame[position + 2] & 0xff) << 8) | (mFrame[position + 3] & 0xff);
+        }
+
+        private void putInt(int position, int value) {
+            mFrame[position] = (byte) (value >> 24);
+            mFrame[position + 1] = (byte) (value >> 16);
+            mFrame[position + 2] = (byte) (value >> 8);
+            mFrame[position + 3] = (byte) value;
+        }
+    }
+}
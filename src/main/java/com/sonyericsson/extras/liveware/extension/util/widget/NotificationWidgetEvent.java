@@ -200,14 +200,25 @@ public class NotificationWidgetEvent {
      * @return The image.
      */
     public Bitmap getImage() {
+        return getImage(0, 0);
+    }
+
+    /**
+     * Get the widget image, downsampled to the size it is shown in.
+     *
+     * @param width  The width the image is shown in.
+     * @param height The height the image is shown in.
+     * @return The image.
+     */
+    public Bitmap getImage(int width, int height) {
         // If profile image explicitly set then use it.
         // Otherwise get the contact photo.
         if (mProfileImageUri != null) {
-            return ExtensionUtils.getBitmapFromUri(mContext, mProfileImageUri);
+            return ExtensionUtils.getBitmapFromUri(mContext, mProfileImageUri, width, height);
         } else {
             if (mContactReference != null) {
                 Uri uri = Uri.parse(mContactReference);
-                return ExtensionUtils.getContactPhoto(mContext, uri);
+                return ExtensionUtils.getContactPhoto(mContext, uri, width, height);
             } else {
                 if (Dbg.DEBUG) {
                     Dbg.e("No image available");
@@ -49,6 +49,7 @@ import com.sonyericsson.extras.liveware.extension.util.notification.Notification
 import net.ugona.plus.watch.R;
 
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 
 /**
  * The widget extension handles a widget on an accessory.
@@ -74,6 +75,33 @@ public class NotificationWidgetExtension extends WidgetExtension {
     protected NotificationWidgetEvent mLastEvent = null;
     private EventContentObserver mEventContentObserver = null;
 
+    /**
+     * The event read at the last query, valid until the event table or the
+     * sources change or until {@link #mEventExpiryTime}.
+     */
+    private NotificationWidgetEvent mCachedEvent = null;
+
+    private boolean mEventsChanged = true;
+
+    private int mSourceGeneration = -1;
+
+    /**
+     * Time when a future event becomes current and another event may be the
+     * most relevant one.
+     */
+    private long mEventExpiryTime = Long.MAX_VALUE;
+
+    private SmartWatchWidgetImage mNoEventsImage = null;
+
+    private SmartWatchNotificationWidgetImage mEventImage = null;
+
+    /**
+     * Source id to icon uri, cleared when the sources change.
+     */
+    private final HashMap<Long, String> mSourceIconUris = new HashMap<Long, String>();
+
+    private int mSourceIconGeneration = -1;
+
     /**
      * Create notification extension widget.
      *
@@ -138,6 +166,9 @@ public class NotificationWidgetExtension extends WidgetExtension {
      */
     @Override
     public void onStartRefresh() {
+        // Changes are not observed while stopped.
+        mEventsChanged = true;
+
         // Start observing the event table to get notified when new events
         // arrive.
         mEventContentObserver = new EventContentObserver(mHandler);
@@ -193,11 +224,19 @@ public class NotificationWidgetExtension extends WidgetExtension {
     public Bitmap getBitmap(final NotificationWidgetEvent event) {
         SmartWatchWidgetImage widgetImage;
         if (null == event) {
-            widgetImage = new SmartWatchWidgetImage(mContext);
+            if (mNoEventsImage == null) {
+                mNoEventsImage = new SmartWatchWidgetImage(mContext);
+            }
+            widgetImage = mNoEventsImage;
             widgetImage.setText(getNoEventsText());
             widgetImage.setIconByResourceId(mDefaultSourceIconResourceId);
         } else {
-            widgetImage = new SmartWatchNotificationWidgetImage(mContext, event);
+            if (mEventImage == null) {
+                mEventImage = new SmartWatchNotificationWidgetImage(mContext, event);
+            } else {
+                mEventImage.setEvent(event);
+            }
+            widgetImage = mEventImage;
             widgetImage.setIconByUri(getSourceIconUri(event.getSourceId()));
             cancelScheduledRefresh(mExtensionKey);
             if (Math.abs(event.getTime() - System.currentTimeMillis()) < (DateUtils.HOUR_IN_MILLIS + DateUtils.MINUTE_IN_MILLIS)) {
@@ -241,11 +280,38 @@ public class NotificationWidgetExtension extends WidgetExtension {
     }
 
     /**
-     * Get the widget event to show.
+     * Get the widget event to show. The event and the number of unread events
+     * are only queried again when the event table has changed, the sources
+     * have changed or the time of a future event has passed.
      *
      * @return The widget event to show.
      */
     protected NotificationWidgetEvent getEvent() {
+        long now = System.currentTimeMillis();
+        int sourceGeneration = NotificationUtil.getSourceGeneration();
+        if (!mEventsChanged && sourceGeneration == mSourceGeneration && now < mEventExpiryTime) {
+            if (Dbg.DEBUG) {
+                Dbg.d("Using cached widget event");
+            }
+            return mCachedEvent;
+        }
+        mCachedEvent = queryEvent();
+        mEventsChanged = false;
+        mSourceGeneration = sourceGeneration;
+        if (mCachedEvent != null && mCachedEvent.getTime() > now) {
+            mEventExpiryTime = mCachedEvent.getTime();
+        } else {
+            mEventExpiryTime = Long.MAX_VALUE;
+        }
+        return mCachedEvent;
+    }
+
+    /**
+     * Query the widget event to show.
+     *
+     * @return The widget event to show.
+     */
+    protected NotificationWidgetEvent queryEvent() {
         Cursor cursor = null;
         NotificationWidgetEvent event = null;
 
@@ -356,8 +422,9 @@ public class NotificationWidgetExtension extends WidgetExtension {
         int count = 0;
         Cursor cursor = null;
         try {
-            cursor = NotificationUtil.queryEventsFromEnabledSources(mContext, null,
-                    Notification.EventColumns.EVENT_READ_STATUS + "= 0", null, null);
+            cursor = NotificationUtil.queryEventsFromEnabledSources(mContext, new String[]{
+                    NotificationUtil.EVENT_ID
+            }, Notification.EventColumns.EVENT_READ_STATUS + "= 0", null, null);
             if (cursor != null) {
                 count = cursor.getCount();
             }
@@ -383,12 +450,35 @@ public class NotificationWidgetExtension extends WidgetExtension {
     }
 
     /**
-     * Get the source icon uri for a source id.
+     * Get the source icon uri for a source id. The icon uris are cached until
+     * the sources change.
      *
      * @param sourceId The source id.
      * @return The source icon uri.
      */
     protected String getSourceIconUri(long sourceId) {
+        int sourceGeneration = NotificationUtil.getSourceGeneration();
+        if (sourceGeneration != mSourceIconGeneration) {
+            mSourceIconUris.clear();
+            mSourceIconGeneration = sourceGeneration;
+        }
+        if (mSourceIconUris.containsKey(sourceId)) {
+            return mSourceIconUris.get(sourceId);
+        }
+        String iconString = querySourceIconUri(sourceId);
+        if (iconString != null) {
+            mSourceIconUris.put(sourceId, iconString);
+        }
+        return iconString;
+    }
+
+    /**
+     * Query the source icon uri for a source id.
+     *
+     * @param sourceId The source id.
+     * @return The source icon uri.
+     */
+    protected String querySourceIconUri(long sourceId) {
         String iconString = null;
         Cursor cursor = null;
         try {
@@ -439,6 +529,7 @@ public class NotificationWidgetExtension extends WidgetExtension {
         @Override
         public void onChange(boolean selfChange) {
             // Update widget if the event has been changed.
+            mEventsChanged = true;
             updateWidget(true);
         }
     }
@@ -59,36 +59,47 @@ public class SmartWatchNotificationWidgetImage extends SmartWatchWidgetImage {
                                              final NotificationWidgetEvent event) {
         super(context);
         setInnerLayoutResourceId(R.layout.smart_watch_notification_widget);
+        setEvent(event);
+    }
+
+    /**
+     * Set the event to show. The image can be reused for a new event.
+     *
+     * @param event The event.
+     * @return this.
+     */
+    public SmartWatchNotificationWidgetImage setEvent(final NotificationWidgetEvent event) {
         setBadgeCount(event.getCount());
         mEvent = event;
+        return this;
     }
 
     @Override
     protected void applyInnerLayout(LinearLayout innerLayout) {
 
-        Bitmap backgroundBitmap = mEvent.getImage();
-        if (null != backgroundBitmap) {
-            ((ImageView) innerLayout
-                    .findViewById(R.id.smart_watch_notification_widget_background))
-                    .setImageBitmap(backgroundBitmap);
+        // The layout is reused, so everything set for a previous event has to
+        // be reset.
+        Bitmap backgroundBitmap = mEvent.getImage(mInnerWidth, mInnerHeight);
+        ((ImageView) innerLayout
+                .findViewById(R.id.smart_watch_notification_widget_background))
+                .setImageBitmap(backgroundBitmap);
 
-            ((ImageView) innerLayout
-                    .findViewById(R.id.smart_watch_notification_widget_text_background))
-                    .setVisibility(View.VISIBLE);
-        }
+        ((ImageView) innerLayout
+                .findViewById(R.id.smart_watch_notification_widget_text_background))
+                .setVisibility((null != backgroundBitmap) ? View.VISIBLE : View.GONE);
 
         // set title
-        ((TextView) innerLayout.findViewById(R.id.smart_watch_notification_widget_text_title))
-                .setText(mEvent.getTitle());
+        setText((TextView) innerLayout
+                .findViewById(R.id.smart_watch_notification_widget_text_title), mEvent.getTitle());
 
         // set time stamp
         String time = ExtensionUtils.getFormattedTime(mEvent.getTime());
-        ((TextView) innerLayout.findViewById(R.id.smart_watch_notification_widget_text_time))
-                .setText(time);
+        setText((TextView) innerLayout
+                .findViewById(R.id.smart_watch_notification_widget_text_time), time);
 
         // set name
-        ((TextView) innerLayout.findViewById(R.id.smart_watch_notification_widget_text_name))
-                .setText(mEvent.getName());
+        setText((TextView) innerLayout
+                .findViewById(R.id.smart_watch_notification_widget_text_name), mEvent.getName());
     }
 
 }
@@ -35,8 +35,8 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.net.Uri;
-import android.provider.MediaStore;
+import android.graphics.Color;
+import android.text.TextUtils;
 import android.util.DisplayMetrics;
 import android.view.View;
 import android.view.ViewGroup.LayoutParams;
@@ -44,15 +44,19 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
-import net.ugona.plus.watch.R;
+import com.sonyericsson.extras.liveware.extension.util.ExtensionUtils;
 
-import java.io.IOException;
+import net.ugona.plus.watch.R;
 
 /**
  * The SmartWatchWidgetImage class is used to generate widget bitmap which follows
  * official SmartWatch layout of where e.g. frame and icon shall be located.
  * The layout inside the frame can be customized by applying setting inner
  * layout resource id.
+ * <p/>
+ * The view tree and the inner bitmap are created once and reused for every
+ * call to {@link #getBitmap()}, so one instance shall be kept and updated
+ * rather than creating a new instance for every update.
  */
 public class SmartWatchWidgetImage {
 
@@ -62,13 +66,28 @@ public class SmartWatchWidgetImage {
     protected final int mOuterHeight;
     protected final int mInnerWidth;
     protected final int mInnerHeight;
+    protected final int mIconSize;
     private final Bitmap mBitmap;
     private final Canvas mCanvas;
     private Bitmap mIconBitmap;
+    private int mIconResourceId;
+    private String mIconUri;
     private String mText;
     private int mBadgeCount;
     private int mInnerLayoutResid;
 
+    private LinearLayout mLayout;
+    private TextView mBadgeText;
+    private ImageView mBadgeBackground;
+    private ImageView mIcon;
+    private TextView mTextView;
+    private ImageView mCustomImage;
+
+    private LinearLayout mInnerLayout;
+    private int mInflatedInnerLayoutResid;
+    private Bitmap mInnerBitmap;
+    private Canvas mInnerCanvas;
+
     /**
      * Initiate the SmartWatch widget image.
      *
@@ -92,6 +111,9 @@ public class SmartWatchWidgetImage {
         mInnerHeight = mContext.getResources().getDimensionPixelSize(
                 R.dimen.smart_watch_widget_height_inner);
 
+        mIconSize = mContext.getResources().getDimensionPixelSize(
+                R.dimen.smart_watch_widget_icon_size);
+
         mBitmap = Bitmap.createBitmap(mOuterWidth, mOuterHeight, Bitmap.Config.ARGB_8888);
 
         // Set the density to default to avoid scaling.
@@ -124,7 +146,12 @@ public class SmartWatchWidgetImage {
      * @return this.
      */
     public SmartWatchWidgetImage setIconByResourceId(int iconId) {
+        if (mIconBitmap != null && mIconResourceId == iconId) {
+            return this;
+        }
         mIconBitmap = BitmapFactory.decodeResource(mContext.getResources(), iconId, mBitmapOptions);
+        mIconResourceId = iconId;
+        mIconUri = null;
         return this;
     }
 
@@ -138,16 +165,15 @@ public class SmartWatchWidgetImage {
         if (iconUri == null) {
             return this;
         }
+        if (mIconBitmap != null && iconUri.equals(mIconUri)) {
+            return this;
+        }
 
-        Uri uri = Uri.parse(iconUri);
-        if (uri != null) {
-            try {
-                mIconBitmap = MediaStore.Images.Media.getBitmap(mContext.getContentResolver(), uri);
-                // We use default density for all bitmaps to avoid scaling.
-                mIconBitmap.setDensity(DisplayMetrics.DENSITY_DEFAULT);
-            } catch (IOException e) {
-
-            }
+        Bitmap bitmap = ExtensionUtils.getBitmapFromUri(mContext, iconUri, mIconSize, mIconSize);
+        if (bitmap != null) {
+            mIconBitmap = bitmap;
+            mIconUri = iconUri;
+            mIconResourceId = 0;
         }
         return this;
     }
@@ -176,84 +202,112 @@ public class SmartWatchWidgetImage {
     }
 
     /**
-     * Apply Set custom text. Typically used when only a text shall be
-     * displayed, and no specific layout is needed.
-     *
-     * @param text The text.
-     * @return this.
+     * Draw the widget into the bitmap. The view tree is only inflated the
+     * first time and only measured again when a view has requested a new
+     * layout, e.g. because the text, the badge or the icon size changed.
      */
     private void draw() {
-        LinearLayout root = new LinearLayout(mContext);
-        root.setLayoutParams(new LayoutParams(mOuterWidth, mOuterHeight));
-
-        LinearLayout linearLayout = (LinearLayout) LinearLayout.inflate(mContext,
-                R.layout.smart_watch_widget, root);
+        if (mLayout == null) {
+            LinearLayout root = new LinearLayout(mContext);
+            root.setLayoutParams(new LayoutParams(mOuterWidth, mOuterHeight));
 
-        if (mBadgeCount > 0) {
-            TextView badgeText = (TextView) linearLayout
+            mLayout = (LinearLayout) LinearLayout.inflate(mContext, R.layout.smart_watch_widget,
+                    root);
+            mBadgeText = (TextView) mLayout
                     .findViewById(R.id.smart_watch_widget_event_counter_text);
-            badgeText.setText(Integer.toString(mBadgeCount));
-            badgeText.setVisibility(View.VISIBLE);
-
-            ImageView badgeBackground = (ImageView) linearLayout
+            mBadgeBackground = (ImageView) mLayout
                     .findViewById(R.id.smart_watch_widget_event_counter_badge);
-            badgeBackground.setVisibility(View.VISIBLE);
+            mIcon = (ImageView) mLayout.findViewById(R.id.smart_watch_widget_icon);
+            mTextView = (TextView) mLayout.findViewById(R.id.smart_watch_widget_custom_text_view);
+            mCustomImage = (ImageView) mLayout.findViewById(R.id.smart_watch_widget_custom_image);
         }
 
-        ImageView icon = (ImageView) linearLayout.findViewById(R.id.smart_watch_widget_icon);
-        icon.setImageBitmap(mIconBitmap);
+        int badgeVisibility = (mBadgeCount > 0) ? View.VISIBLE : View.GONE;
+        if (mBadgeCount > 0) {
+            setText(mBadgeText, Integer.toString(mBadgeCount));
+        }
+        if (mBadgeText.getVisibility() != badgeVisibility) {
+            mBadgeText.setVisibility(badgeVisibility);
+            mBadgeBackground.setVisibility(badgeVisibility);
+        }
 
-        if (null != mText) {
-            TextView textView = (TextView) linearLayout
-                    .findViewById(R.id.smart_watch_widget_custom_text_view);
-            textView.setText(mText);
+        if (mIcon.getTag() != mIconBitmap) {
+            mIcon.setImageBitmap(mIconBitmap);
+            mIcon.setTag(mIconBitmap);
         }
 
-        ImageView customImage = (ImageView) linearLayout
-                .findViewById(R.id.smart_watch_widget_custom_image);
-        customImage.setImageBitmap(getInnerBitmap());
+        setText(mTextView, (mText != null) ? mText : "");
 
-        linearLayout.measure(mOuterWidth, mOuterHeight);
-        linearLayout
-                .layout(0, 0, linearLayout.getMeasuredWidth(), linearLayout.getMeasuredHeight());
+        Bitmap innerBitmap = getInnerBitmap();
+        if (mCustomImage.getTag() != innerBitmap) {
+            mCustomImage.setImageBitmap(innerBitmap);
+            mCustomImage.setTag(innerBitmap);
+        }
 
-        linearLayout.draw(mCanvas);
+        if (mLayout.isLayoutRequested()) {
+            mLayout.measure(mOuterWidth, mOuterHeight);
+            mLayout.layout(0, 0, mLayout.getMeasuredWidth(), mLayout.getMeasuredHeight());
+        }
+
+        mBitmap.eraseColor(Color.TRANSPARENT);
+        mLayout.draw(mCanvas);
     }
 
     /**
-     * Get bitmap inside the frame.
+     * Get bitmap inside the frame. The same bitmap is redrawn on every call.
      *
      * @return a bitmap or null if no inner layout is applied.
      */
     private Bitmap getInnerBitmap() {
         if (mInnerLayoutResid != 0) {
-            Bitmap innerBitmap = Bitmap.createBitmap(mInnerWidth, mInnerHeight,
-                    Bitmap.Config.ARGB_8888);
+            if (mInnerBitmap == null) {
+                mInnerBitmap = Bitmap.createBitmap(mInnerWidth, mInnerHeight,
+                        Bitmap.Config.ARGB_8888);
 
-            // Set the density to default to avoid scaling.
-            innerBitmap.setDensity(DisplayMetrics.DENSITY_DEFAULT);
+                // Set the density to default to avoid scaling.
+                mInnerBitmap.setDensity(DisplayMetrics.DENSITY_DEFAULT);
+                mInnerCanvas = new Canvas(mInnerBitmap);
+            }
 
-            LinearLayout root = new LinearLayout(mContext);
-            root.setLayoutParams(new LayoutParams(mInnerWidth, mInnerHeight));
+            if (mInnerLayout == null || mInflatedInnerLayoutResid != mInnerLayoutResid) {
+                LinearLayout root = new LinearLayout(mContext);
+                root.setLayoutParams(new LayoutParams(mInnerWidth, mInnerHeight));
 
-            LinearLayout innerLayout = (LinearLayout) LinearLayout.inflate(mContext,
-                    mInnerLayoutResid, root);
+                mInnerLayout = (LinearLayout) LinearLayout.inflate(mContext, mInnerLayoutResid,
+                        root);
+                mInflatedInnerLayoutResid = mInnerLayoutResid;
+            }
 
-            applyInnerLayout(innerLayout);
+            applyInnerLayout(mInnerLayout);
 
-            innerLayout.measure(mInnerWidth, mInnerHeight);
-            innerLayout.layout(0, 0, innerLayout.getMeasuredWidth(),
-                    innerLayout.getMeasuredHeight());
+            if (mInnerLayout.isLayoutRequested()) {
+                mInnerLayout.measure(mInnerWidth, mInnerHeight);
+                mInnerLayout.layout(0, 0, mInnerLayout.getMeasuredWidth(),
+                        mInnerLayout.getMeasuredHeight());
+            }
 
-            Canvas innerCanvas = new Canvas(innerBitmap);
-            innerLayout.draw(innerCanvas);
+            mInnerBitmap.eraseColor(Color.TRANSPARENT);
+            mInnerLayout.draw(mInnerCanvas);
 
-            return innerBitmap;
+            return mInnerBitmap;
         } else {
             return null;
         }
     }
 
+    /**
+     * Set the text of a text view if it differs from the shown text. Setting
+     * the same text again would request a new layout.
+     *
+     * @param textView The text view.
+     * @param text     The text.
+     */
+    protected static void setText(TextView textView, CharSequence text) {
+        if (!TextUtils.equals(textView.getText(), text)) {
+            textView.setText(text);
+        }
+    }
+
     /**
      * Get bitmap inside the frame.
      * <p/>
@@ -192,6 +192,23 @@ public abstract class WidgetExtension {
                 createPendingRefreshIntent(extensionKey));
     }
 
+    /**
+     * Schedule a refresh that does not wake up the phone. If the phone is
+     * asleep at the trigger time the refresh is delivered the next time it
+     * wakes up, and on newer platforms the alarm may be batched with other
+     * alarms. Use this for refreshes that can be late.
+     *
+     * @param triggerAtTime Earliest time the scheduled refresh should trigger
+     *                      in {@link System#currentTimeMillis()} time.
+     * @param extensionKey  The extension key
+     * @see #scheduleRefresh(long, String)
+     */
+    protected void scheduleInexactRefresh(long triggerAtTime, String extensionKey) {
+        AlarmManager am = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+
+        am.set(AlarmManager.RTC, triggerAtTime, createPendingRefreshIntent(extensionKey));
+    }
+
     /**
      * Cancel any pending scheduled refresh associated with the extension key.
      *
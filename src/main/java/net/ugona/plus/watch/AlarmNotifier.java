@@ -0,0 +1,154 @@
+package net.ugona.plus.watch;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.sonyericsson.extras.liveware.aef.notification.Notification;
+import com.sonyericsson.extras.liveware.extension.util.notification.NotificationUtil;
+
+import java.util.ArrayList;
+
+/**
+ * Turns car alarm events into watch notifications. Only the event id of the
+ * car is read until it moves past the last seen one, then the current alarm
+ * state is read once and the new events are inserted in one batch.
+ */
+public class AlarmNotifier {
+
+    static final String SOURCE = "car_alarm";
+
+    static final long DEDUP_WINDOW = 5 * 60 * 1000;
+
+    static final String LAST_EVENT = "notify_event_";
+    static final String LAST_ALARM = "notify_alarm_";
+    static final String VALET = "notify_valet_";
+
+    static final String[] alarms = {
+            Names.ZONE_DOOR,
+            Names.ZONE_HOOD,
+            Names.ZONE_TRUNK,
+            Names.ZONE_IGNITION,
+            Names.ZONE_ACCESSORY,
+            Names.SHOCK
+    };
+
+    static final int[] alarm_messages = {
+            R.string.alarm_door,
+            R.string.alarm_hood,
+            R.string.alarm_trunk,
+            R.string.alarm_ignition,
+            R.string.alarm_accessory,
+            R.string.alarm_shock
+    };
+
+    static final String[] fields = {
+            Names.EVENT_TIME,
+            Names.GUARD0,
+            Names.GUARD1,
+            Names.ZONE_DOOR,
+            Names.ZONE_HOOD,
+            Names.ZONE_TRUNK,
+            Names.ZONE_IGNITION,
+            Names.ZONE_ACCESSORY,
+            Names.SHOCK
+    };
+
+    static boolean isTrue(Cursor c, String name) {
+        int idx = c.getColumnIndex(name);
+        if (idx < 0)
+            return false;
+        return "true".equals(c.getString(idx));
+    }
+
+    /**
+     * Check the selected car for new events and post them to the watch.
+     *
+     * @param context The context.
+     * @return Number of posted notifications.
+     */
+    static int process(Context context) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        return process(context, preferences.getString(State.ID, ""));
+    }
+
+    /**
+     * Check a car for new events and post them to the watch.
+     *
+     * @param context The context.
+     * @param car_id  The car.
+     * @return Number of posted notifications.
+     */
+    static int process(Context context, String car_id) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+        CarWatermark watermark = CarWatermark.read(context, car_id);
+        if ((watermark == null) || (watermark.event_id == 0))
+            return 0;
+        long event_id = watermark.event_id;
+        long last_id = preferences.getLong(LAST_EVENT + car_id, 0);
+        if (event_id == last_id)
+            return 0;
+
+        SharedPreferences.Editor ed = preferences.edit();
+        ed.putLong(LAST_EVENT + car_id, event_id);
+        // On the first run the old state is not news, it is only noted
+        boolean first = (last_id == 0);
+
+        ArrayList<ContentValues> events = new ArrayList<ContentValues>();
+        Cursor c = null;
+        try {
+            c = context.getContentResolver().query(CarWatermark.getCarUri(car_id), fields, null, null, null);
+            if ((c != null) && c.moveToFirst()) {
+                long time = c.getLong(c.getColumnIndex(Names.EVENT_TIME));
+                long now = System.currentTimeMillis();
+                if (time == 0)
+                    time = now;
+                for (int i = 0; (i < alarms.length) && !first; i++) {
+                    if (!isTrue(c, alarms[i]))
+                        continue;
+                    String key = LAST_ALARM + alarms[i] + car_id;
+                    if (now - preferences.getLong(key, 0) < DEDUP_WINDOW)
+                        continue;
+                    ed.putLong(key, now);
+                    events.add(createEvent(context, car_id, time, alarm_messages[i]));
+                }
+                boolean valet = isTrue(c, Names.GUARD0) && !isTrue(c, Names.GUARD1);
+                if (first || !preferences.contains(VALET + car_id)) {
+                    ed.putBoolean(VALET + car_id, valet);
+                } else if (valet != preferences.getBoolean(VALET + car_id, false)) {
+                    ed.putBoolean(VALET + car_id, valet);
+                    events.add(createEvent(context, car_id, time, valet ? R.string.valet_on_event : R.string.valet_off_event));
+                }
+            }
+        } catch (Exception ex) {
+            Log.d(ExtensionService.LOG_TAG, "Failed to read car state: " + ex);
+        } finally {
+            if (c != null)
+                c.close();
+        }
+
+        int posted = 0;
+        if (events.size() > 0) {
+            posted = NotificationUtil.addEvents(context, SOURCE, events.toArray(new ContentValues[events.size()]));
+            Log.d(ExtensionService.LOG_TAG, "Posted " + posted + " of " + events.size() + " car events");
+        }
+        State.apply(ed);
+        return posted;
+    }
+
+    static ContentValues createEvent(Context context, String car_id, long time, int message) {
+        ContentValues values = new ContentValues();
+        values.put(Notification.EventColumns.EVENT_READ_STATUS, false);
+        values.put(Notification.EventColumns.DISPLAY_NAME, context.getString(R.string.extension_name));
+        values.put(Notification.EventColumns.TITLE, context.getString(message));
+        values.put(Notification.EventColumns.MESSAGE, context.getString(message));
+        values.put(Notification.EventColumns.PERSONAL, 1);
+        values.put(Notification.EventColumns.PUBLISHED_TIME, time);
+        values.put(Notification.EventColumns.FRIEND_KEY, car_id);
+        return values;
+    }
+}
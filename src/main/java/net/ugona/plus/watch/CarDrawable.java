@@ -9,16 +9,25 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.drawable.Drawable;
 
+import java.util.Arrays;
 import java.util.Date;
 
 public class CarDrawable {
 
     static final String PKG_NAME = "net.ugona.plus";
 
-    static Bitmap bitmap;
+    Bitmap bitmap;
     Resources resources;
     String[] parts_id;
 
+    // Engine layer with the engine running and stopped, for the last state
+    String engine_on;
+    String engine_off;
+
+    // The last state is guarded, alarms show in red
+    boolean guarded;
+    boolean doors4;
+
     CarDrawable() {
         parts_id = new String[9];
     }
@@ -45,7 +54,11 @@ public class CarDrawable {
         Date now = new Date();
         boolean upd = false;
         boolean doors4 = getBoolean(c, Names.DOORS_4);
+        this.doors4 = doors4;
+        guarded = false;
         if ((last < now.getTime() - 24 * 60 * 60 * 1000)) {
+            engine_on = null;
+            engine_off = null;
             upd = setLayer(0, doors4 ? "car_black4" : "car_black");
             upd |= setLayer(1);
             upd |= setLayer(2);
@@ -69,6 +82,7 @@ public class CarDrawable {
             }
 
             boolean white = !guard || (guard0 && guard1) || card;
+            guarded = !white;
 
             upd = setModeCar(!white, getBoolean(c, Names.ZONE_ACCESSORY), doors4);
 
@@ -111,15 +125,11 @@ public class CarDrawable {
             }
             upd |= setModeOpen(3, "trunk", !white, trunk_open, trunk_alarm, doors4);
 
-            boolean az = getBoolean(c, Names.AZ);
-            if (az) {
-                upd |= setLayer(4, "engine1", !white);
-            } else {
-                String ignition_id = null;
-                if (!az && (getBoolean(c, Names.INPUT3) || getBoolean(c, Names.ZONE_IGNITION)))
-                    ignition_id = guard ? "ignition_red" : (white ? "ignition_blue" : "ignition");
-                upd |= setLayer(4, ignition_id);
-            }
+            engine_on = white ? "engine1_blue" : "engine1";
+            engine_off = null;
+            if (getBoolean(c, Names.INPUT3) || getBoolean(c, Names.ZONE_IGNITION))
+                engine_off = guard ? "ignition_red" : (white ? "ignition_blue" : "ignition");
+            upd |= setLayer(4, getBoolean(c, Names.AZ) ? engine_on : engine_off);
 
             String state = null;
             if (guard) {
@@ -137,26 +147,49 @@ public class CarDrawable {
     }
 
     Bitmap getBitmap(Context context, Cursor c, int width, int height) {
+        if (!prepare(context, c) && (bitmap != null))
+            return bitmap;
+        if (resources == null)
+            return bitmap;
+        return draw(width, height);
+    }
+
+    /**
+     * Set the layers for a car state without drawing them.
+     *
+     * @return True if the layers have changed.
+     */
+    boolean prepare(Context context, Cursor c) {
         try {
             PackageManager manager = context.getPackageManager();
             resources = manager.getResourcesForApplication(PKG_NAME);
         } catch (Exception ex) {
             // ignore
         }
+        if (resources == null)
+            return false;
+        return update(c);
+    }
 
-        if ((resources == null) || (!update(c) && (bitmap != null)))
-            return bitmap;
-
-        if (bitmap == null) {
+    Bitmap draw(int width, int height) {
+        if ((bitmap == null) || (bitmap.getWidth() != width) || (bitmap.getHeight() != height)) {
             bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
         } else {
             bitmap.eraseColor(Color.TRANSPARENT);
         }
+        draw(resources, parts_id, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Draw layers into a bitmap. Does not touch the drawable state, so it can
+     * run on any thread.
+     */
+    static void draw(Resources resources, String[] parts, Bitmap bitmap) {
         Canvas canvas = new Canvas(bitmap);
-        for (String part : parts_id) {
+        for (String part : parts) {
             if (part == null)
                 continue;
-            ;
             int id = resources.getIdentifier(part, "drawable", PKG_NAME);
             if (id == 0)
                 continue;
@@ -164,7 +197,57 @@ public class CarDrawable {
             d.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
             d.draw(canvas);
         }
-        return bitmap;
+    }
+
+    /**
+     * Layers expected after the engine has been started or stopped.
+     *
+     * @return The layers, null if the state is unknown or stale.
+     */
+    String[] predictEngine(boolean engine) {
+        if ((resources == null) || (engine_on == null))
+            return null;
+        String[] parts = parts_id.clone();
+        parts[4] = engine ? engine_on : engine_off;
+        return parts;
+    }
+
+    /**
+     * Layers expected when a zone of the guarded car goes into alarm.
+     *
+     * @param zone The alarm zone field.
+     * @return The layers, null if the zone would not change them.
+     */
+    String[] predictAlarm(String zone) {
+        if ((resources == null) || !guarded)
+            return null;
+        String[] parts = parts_id.clone();
+        String suffix = doors4 ? "4" : "";
+        if (zone.equals(Names.ZONE_DOOR)) {
+            // The four doors are in alarm by their own state
+            if (doors4)
+                return null;
+            parts[1] = "doors_red_open";
+        } else if (zone.equals(Names.ZONE_HOOD)) {
+            parts[2] = "hood_red_open" + suffix;
+        } else if (zone.equals(Names.ZONE_TRUNK)) {
+            parts[3] = "trunk_red_open" + suffix;
+        } else if (zone.equals(Names.ZONE_IGNITION)) {
+            parts[4] = "ignition_red";
+        } else if (zone.equals(Names.ZONE_ACCESSORY)) {
+            parts[0] = "car_red" + suffix;
+        }
+        if (Arrays.equals(parts, parts_id))
+            return null;
+        return parts;
+    }
+
+    /**
+     * Take a bitmap drawn from the current layers, so that they need not be
+     * drawn again.
+     */
+    void setBitmap(Bitmap bitmap) {
+        this.bitmap = bitmap;
     }
 
     boolean setLayer(int n) {
@@ -191,12 +274,6 @@ public class CarDrawable {
         return true;
     }
 
-    boolean setLayer(int n, String name, boolean white) {
-        if (!white)
-            name += "_blue";
-        return setLayer(n, name);
-    }
-
     boolean setModeCar(boolean guard, boolean alarm, boolean doors4) {
         String pos = guard ? "car_blue" : "car_white";
         if (alarm)
@@ -0,0 +1,219 @@
+package net.ugona.plus.watch;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * Time series of the car voltage, temperature and balance. The samples are
+ * fixed size records in a ring buffer in a memory mapped file per car, so a
+ * sample costs a few stores into the page cache and survives a restart of
+ * the process. A sample is added only when the event time of the car moves,
+ * repeated updates of the same event are not stored twice.
+ */
+class CarHistory {
+
+    static final int MAGIC = 0x55474831;
+    static final int CAPACITY = 4096;
+
+    // magic, capacity, head, count, last time
+    static final int HEADER_SIZE = 32;
+    static final int HEAD = 8;
+    static final int COUNT = 12;
+    static final int LAST_TIME = 16;
+
+    // time, voltage main, voltage reserved, temperature, balance
+    static final int RECORD_SIZE = 24;
+
+    static final String[] fields = {
+            Names.EVENT_TIME,
+            Names.VOLTAGE_MAIN,
+            Names.VOLTAGE_RESERVED,
+            Names.TEMPERATURE,
+            Names.TEMP_SIFT,
+            Names.BALANCE
+    };
+
+    static final HashMap<String, CarHistory> histories = new HashMap<String, CarHistory>();
+
+    final MappedByteBuffer buffer;
+    int head;
+    int count;
+    long last_time;
+
+    CarHistory(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        if ((buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != CAPACITY)) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, CAPACITY);
+            buffer.putInt(HEAD, 0);
+            buffer.putInt(COUNT, 0);
+            buffer.putLong(LAST_TIME, 0);
+        }
+        head = buffer.getInt(HEAD);
+        count = buffer.getInt(COUNT);
+        last_time = buffer.getLong(LAST_TIME);
+        if ((head < 0) || (head >= CAPACITY) || (count < 0) || (count > CAPACITY)) {
+            head = 0;
+            count = 0;
+            last_time = 0;
+        }
+    }
+
+    /**
+     * Get the history of a car, mapping its file on first use.
+     *
+     * @return The history, null if the file could not be mapped.
+     */
+    static synchronized CarHistory get(Context context, String car_id) {
+        CarHistory history = histories.get(car_id);
+        if (history != null)
+            return history;
+        File dir = new File(context.getFilesDir(), "history");
+        RandomAccessFile file = null;
+        try {
+            dir.mkdirs();
+            file = new RandomAccessFile(new File(dir, "car" + car_id + ".bin"), "rw");
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + CAPACITY * RECORD_SIZE);
+            history = new CarHistory(buffer);
+            histories.put(car_id, history);
+        } catch (IOException ex) {
+            Log.d(ExtensionService.LOG_TAG, "Failed to map history: " + ex);
+        } finally {
+            // The mapping stays valid after the file is closed
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ex) {
+                    // ignore
+                }
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Add the current state of a car if its event time has moved since the
+     * last sample. Only the event time is read otherwise.
+     *
+     * @return The history, null if it is not available.
+     */
+    static CarHistory record(Context context, String car_id) {
+        CarHistory history = get(context, car_id);
+        if (history == null)
+            return null;
+        CarWatermark watermark = CarWatermark.read(context, car_id);
+        if ((watermark == null) || (watermark.event_time <= history.getLastTime()))
+            return history;
+        Cursor c = null;
+        try {
+            c = context.getContentResolver().query(CarWatermark.getCarUri(car_id), fields, null, null, null);
+            if ((c != null) && c.moveToFirst()) {
+                long time = CarDrawable.getLong(c, Names.EVENT_TIME);
+                float voltage_main = getFloat(c, Names.VOLTAGE_MAIN);
+                if (history.add(time, voltage_main, getFloat(c, Names.VOLTAGE_RESERVED), getTemperature(c), getFloat(c, Names.BALANCE)))
+                    DepletionEstimator.add(context, car_id, time, voltage_main);
+            }
+        } catch (Exception ex) {
+            Log.d(ExtensionService.LOG_TAG, "Failed to read car values: " + ex);
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        return history;
+    }
+
+    static float getFloat(Cursor c, String name) {
+        try {
+            return Float.parseFloat(CarDrawable.getString(c, name));
+        } catch (Exception ex) {
+            return Float.NaN;
+        }
+    }
+
+    /**
+     * Temperature of the first sensor, corrected by the shift.
+     *
+     * @return The temperature, NaN if it is unknown.
+     */
+    static float getTemperature(Cursor c) {
+        try {
+            String[] temp_data = CarDrawable.getString(c, Names.TEMPERATURE).split(";");
+            int temp_value = Integer.parseInt(temp_data[0].split(":")[1]);
+            return temp_value + CarDrawable.getLong(c, Names.TEMP_SIFT);
+        } catch (Exception ex) {
+            return Float.NaN;
+        }
+    }
+
+    synchronized long getLastTime() {
+        return last_time;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Add a sample. Samples not newer than the last one are ignored.
+     *
+     * @return True if the sample was added.
+     */
+    synchronized boolean add(long time, float voltage_main, float voltage_reserved, float temperature, float balance) {
+        if (time <= last_time)
+            return false;
+        int pos = HEADER_SIZE + head * RECORD_SIZE;
+        buffer.putLong(pos, time);
+        buffer.putFloat(pos + 8, voltage_main);
+        buffer.putFloat(pos + 12, voltage_reserved);
+        buffer.putFloat(pos + 16, temperature);
+        buffer.putFloat(pos + 20, balance);
+        head = (head + 1) % CAPACITY;
+        if (count < CAPACITY)
+            count++;
+        last_time = time;
+        buffer.putInt(HEAD, head);
+        buffer.putInt(COUNT, count);
+        buffer.putLong(LAST_TIME, last_time);
+        return true;
+    }
+
+    /**
+     * Copy the samples since a time into arrays, oldest first. If there are
+     * more samples than the arrays hold, the newest are copied. Any of the
+     * value arrays may be null, the others must be as long as the times.
+     *
+     * @return Number of samples copied.
+     */
+    synchronized int read(long since, long[] times, float[] voltage_main, float[] voltage_reserved,
+                          float[] temperature, float[] balance) {
+        int n = 0;
+        int max = Math.min(count, times.length);
+        while (n < max) {
+            int index = (head - n - 1 + CAPACITY) % CAPACITY;
+            if (buffer.getLong(HEADER_SIZE + index * RECORD_SIZE) < since)
+                break;
+            n++;
+        }
+        for (int i = 0; i < n; i++) {
+            int pos = HEADER_SIZE + ((head - n + i + CAPACITY) % CAPACITY) * RECORD_SIZE;
+            times[i] = buffer.getLong(pos);
+            if (voltage_main != null)
+                voltage_main[i] = buffer.getFloat(pos + 8);
+            if (voltage_reserved != null)
+                voltage_reserved[i] = buffer.getFloat(pos + 12);
+            if (temperature != null)
+                temperature[i] = buffer.getFloat(pos + 16);
+            if (balance != null)
+                balance[i] = buffer.getFloat(pos + 20);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,69 @@
+package net.ugona.plus.watch;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.preference.PreferenceManager;
+
+/**
+ * Receives car state updates from net.ugona.plus, posts new alarm events of
+ * the updated car to the watch notification feed and records its values.
+ * The provider is read on a worker thread, not in onReceive on the main
+ * thread.
+ */
+public class CarUpdateReceiver extends BroadcastReceiver {
+
+    static Handler worker;
+
+    /**
+     * Run a task on the car update thread, after the pending updates.
+     */
+    static synchronized void post(Runnable task) {
+        if (worker == null) {
+            HandlerThread thread = new HandlerThread("CarUpdate");
+            thread.start();
+            worker = new Handler(thread.getLooper());
+        }
+        worker.post(task);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final Context app = context.getApplicationContext();
+        // The update is about this car, which need not be the selected one
+        final String id = intent.getStringExtra(Names.ID);
+        // Keep the process alive until the update is handled
+        final Object result = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) ? Honeycomb.goAsync(this) : null;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String car_id = id;
+                    if (car_id == null) {
+                        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(app);
+                        car_id = preferences.getString(State.ID, "");
+                    }
+                    AlarmNotifier.process(app, car_id);
+                    CarHistory.record(app, car_id);
+                } finally {
+                    if (result != null)
+                        Honeycomb.finish(result);
+                }
+            }
+        });
+    }
+
+    static class Honeycomb {
+        static Object goAsync(BroadcastReceiver receiver) {
+            return receiver.goAsync();
+        }
+
+        static void finish(Object result) {
+            ((PendingResult) result).finish();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package net.ugona.plus.watch;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Last event of a car. Reading it costs a two column lookup, so it is checked
+ * before the full car state is queried and rendered.
+ */
+public class CarWatermark {
+
+    static final String[] fields = {
+            Names.EVENT_ID,
+            Names.EVENT_TIME
+    };
+
+    static final long STALE_TIME = 24 * 60 * 60 * 1000;
+
+    final String car_id;
+    final long event_id;
+    final long event_time;
+    final boolean stale;
+
+    CarWatermark(String car_id, long event_id, long event_time) {
+        this.car_id = car_id;
+        this.event_id = event_id;
+        this.event_time = event_time;
+        stale = event_time < System.currentTimeMillis() - STALE_TIME;
+    }
+
+    static Uri getCarUri(String car_id) {
+        return Uri.parse("content://net.ugona.plus/car/" + car_id);
+    }
+
+    static CarWatermark read(Context context, String car_id) {
+        Cursor c = null;
+        try {
+            c = context.getContentResolver().query(getCarUri(car_id), fields, null, null, null);
+            if ((c == null) || !c.moveToFirst())
+                return null;
+            return new CarWatermark(car_id, c.getLong(0), c.getLong(1));
+        } catch (Exception ex) {
+            Log.d(ExtensionService.LOG_TAG, "Failed to read event id: " + ex);
+            return null;
+        } finally {
+            if (c != null)
+                c.close();
+        }
+    }
+
+    boolean same(CarWatermark w) {
+        if (w == null)
+            return false;
+        return car_id.equals(w.car_id) && (event_id == w.event_id) && (event_time == w.event_time) && (stale == w.stale);
+    }
+}
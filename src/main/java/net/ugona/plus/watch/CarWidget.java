@@ -0,0 +1,212 @@
+package net.ugona.plus.watch;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.preference.PreferenceManager;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import com.sonyericsson.extras.liveware.aef.widget.Widget;
+import com.sonyericsson.extras.liveware.extension.util.widget.WidgetExtension;
+
+import java.text.DateFormat;
+
+/**
+ * Car status widget for SmartWatch. The car state is only read and rendered
+ * when the event watermark of the car has moved, otherwise the last rendered
+ * frame is kept. The scheduled refresh backs off while the car is parked and
+ * tightens while the engine or autostart is running.
+ */
+class CarWidget extends WidgetExtension {
+
+    static final long INTERVAL_RUNNING = 60 * 1000;
+    static final long INTERVAL_CHANGED = 2 * 60 * 1000;
+    static final long INTERVAL_PARKED = 5 * 60 * 1000;
+    static final long INTERVAL_MAX = 60 * 60 * 1000;
+
+    static final String[] fields = {
+            Names.VOLTAGE_MAIN,
+            Names.EVENT_TIME,
+            Names.GUARD,
+            Names.GUARD0,
+            Names.GUARD1,
+            Names.ZONE_ACCESSORY,
+            Names.ZONE_DOOR,
+            Names.ZONE_HOOD,
+            Names.ZONE_TRUNK,
+            Names.ZONE_IGNITION,
+            Names.INPUT1,
+            Names.INPUT2,
+            Names.INPUT3,
+            Names.INPUT4,
+            Names.AZ,
+            Names.DOORS_4,
+            Names.DOOR_BL,
+            Names.DOOR_BR,
+            Names.DOOR_FL,
+            Names.DOOR_FR,
+            Names.GUARD_TIME,
+            Names.CARD
+    };
+
+    final int width;
+    final int height;
+    final Bitmap bitmap;
+    final Canvas canvas;
+    final Paint paint;
+    final Rect car_rect;
+
+    CarDrawable carDrawable;
+    CarWatermark watermark;
+    boolean running;
+    long interval;
+    BroadcastReceiver br;
+
+    CarWidget(Context context, String hostAppPackageName) {
+        super(context, hostAppPackageName);
+        width = getSupportedWidgetWidth(context);
+        height = getSupportedWidgetHeight(context);
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        // Set the density to default to avoid scaling.
+        bitmap.setDensity(DisplayMetrics.DENSITY_DEFAULT);
+        canvas = new Canvas(bitmap);
+        paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.WHITE);
+        paint.setTextAlign(Paint.Align.RIGHT);
+        paint.setTextSize(context.getResources().getDimensionPixelSize(R.dimen.smart_watch_text_size_normal));
+        // The car image is 126x176, keep the aspect ratio
+        int car_width = height * 126 / 176;
+        car_rect = new Rect(0, 0, car_width, height);
+        carDrawable = new CarDrawable();
+        interval = INTERVAL_PARKED;
+    }
+
+    static int getSupportedWidgetWidth(Context context) {
+        return context.getResources().getDimensionPixelSize(R.dimen.smart_watch_widget_width_outer);
+    }
+
+    static int getSupportedWidgetHeight(Context context) {
+        return context.getResources().getDimensionPixelSize(R.dimen.smart_watch_widget_height_outer);
+    }
+
+    /**
+     * Get the next refresh interval.
+     *
+     * @param current Current interval.
+     * @param changed The car state has changed since the last refresh.
+     * @param running Engine or autostart is running.
+     * @return The next interval.
+     */
+    static long nextInterval(long current, boolean changed, boolean running) {
+        if (running)
+            return INTERVAL_RUNNING;
+        if (changed)
+            return INTERVAL_CHANGED;
+        long next = Math.max(current * 2, INTERVAL_PARKED);
+        return Math.min(next, INTERVAL_MAX);
+    }
+
+    @Override
+    public void onStartRefresh() {
+        Log.d(ExtensionService.LOG_TAG, "CarWidget onStartRefresh");
+        br = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                refresh(false);
+            }
+        };
+        mContext.registerReceiver(br, new IntentFilter("net.ugona.plus.UPDATE"));
+        refresh(true);
+    }
+
+    @Override
+    public void onStopRefresh() {
+        Log.d(ExtensionService.LOG_TAG, "CarWidget onStopRefresh");
+        cancelScheduledRefresh(ExtensionService.EXTENSION_KEY);
+        if (br != null) {
+            mContext.unregisterReceiver(br);
+            br = null;
+        }
+    }
+
+    @Override
+    public void onScheduledRefresh() {
+        refresh(false);
+    }
+
+    @Override
+    public void onTouch(int type, int x, int y) {
+        Intent intent = new Intent(Widget.Intents.WIDGET_ENTER_NEXT_LEVEL_INTENT);
+        sendToHostApp(intent);
+    }
+
+    /**
+     * Refresh the widget and schedule the next refresh.
+     *
+     * @param show Send the frame even if the car state has not changed.
+     */
+    void refresh(boolean show) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String car_id = preferences.getString(State.ID, "");
+
+        CarWatermark current = CarWatermark.read(mContext, car_id);
+        boolean changed = (current != null) && !current.same(watermark);
+        if (changed) {
+            watermark = current;
+            render(car_id, current.stale);
+            showBitmap(bitmap);
+        } else if (show) {
+            if (watermark == null)
+                render(car_id, true);
+            showBitmap(bitmap);
+        }
+
+        interval = nextInterval(interval, changed, running);
+        Log.d(ExtensionService.LOG_TAG, "CarWidget next refresh in " + interval / 1000 + " s");
+        cancelScheduledRefresh(ExtensionService.EXTENSION_KEY);
+        scheduleInexactRefresh(System.currentTimeMillis() + interval, ExtensionService.EXTENSION_KEY);
+    }
+
+    void render(String car_id, boolean stale) {
+        running = false;
+        String time = "??:??";
+        String voltage = "";
+        Bitmap car = null;
+        Cursor c = null;
+        try {
+            c = mContext.getContentResolver().query(CarWatermark.getCarUri(car_id), fields, null, null, null);
+            if ((c != null) && c.moveToFirst()) {
+                car = carDrawable.getBitmap(mContext, c, 126, 176);
+                running = AlarmNotifier.isTrue(c, Names.AZ) || AlarmNotifier.isTrue(c, Names.INPUT3);
+                if (!stale) {
+                    DateFormat tf = android.text.format.DateFormat.getTimeFormat(mContext);
+                    time = tf.format(CarDrawable.getLong(c, Names.EVENT_TIME));
+                }
+                String v = CarDrawable.getString(c, Names.VOLTAGE_MAIN);
+                if (v != null)
+                    voltage = v + " V";
+            }
+        } catch (Exception ex) {
+            Log.d(ExtensionService.LOG_TAG, "Failed to read car state: " + ex);
+        } finally {
+            if (c != null)
+                c.close();
+        }
+
+        bitmap.eraseColor(Color.BLACK);
+        if (car != null)
+            canvas.drawBitmap(car, null, car_rect, paint);
+        float line = paint.getTextSize() * 1.2f;
+        canvas.drawText(time, width - 2, line, paint);
+        canvas.drawText(voltage, width - 2, line * 2, paint);
+    }
+}
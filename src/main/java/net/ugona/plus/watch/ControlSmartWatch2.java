@@ -37,22 +37,37 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
-import android.view.LayoutInflater;
-import android.view.View;
 
 import com.sonyericsson.extras.liveware.aef.control.Control;
+import com.sonyericsson.extras.liveware.aef.registration.Registration;
+import com.sonyericsson.extras.liveware.aef.sensor.Sensor;
 import com.sonyericsson.extras.liveware.extension.util.control.ControlExtension;
+import com.sonyericsson.extras.liveware.extension.util.control.ControlListItem;
+import com.sonyericsson.extras.liveware.extension.util.control.ControlObjectClickEvent;
 import com.sonyericsson.extras.liveware.extension.util.control.ControlView;
 import com.sonyericsson.extras.liveware.extension.util.control.ControlViewGroup;
+import com.sonyericsson.extras.liveware.extension.util.control.HostCapabilities;
+import com.sonyericsson.extras.liveware.extension.util.sensor.AccessorySensor;
+import com.sonyericsson.extras.liveware.extension.util.sensor.AccessorySensorException;
+import com.sonyericsson.extras.liveware.extension.util.sensor.AccessorySensorManager;
 
 import java.text.DateFormat;
+import java.util.Arrays;
 import java.util.Date;
 
 /**
@@ -82,29 +97,136 @@ class ControlSmartWatch2 extends ControlExtension {
             Names.INPUT3,
             Names.INPUT4,
             Names.AZ,
+            Names.AZ_START,
+            Names.AZ_STOP,
             Names.DOORS_4,
             Names.DOOR_BL,
             Names.DOOR_BR,
             Names.DOOR_FL,
             Names.DOOR_FR
     };
+    static final String[] alarm_fields = {
+            Names.ZONE_DOOR,
+            Names.ZONE_HOOD,
+            Names.ZONE_TRUNK,
+            Names.ZONE_IGNITION,
+            Names.ZONE_ACCESSORY
+    };
+    static final int ALARM_ON = 500;
+    static final int ALARM_OFF = 300;
+    static final int ALARM_REPEATS = 3;
+    static final long PENDING_TIME = 90 * 1000;
+    static final String PENDING_TEXT = "\u2026";
+    static final long MINUTE = 60 * 1000;
+    static final long SECOND = 1000;
+    // Run time of the autostart if the stop time is not known
+    static final long AZ_TIME = 20 * MINUTE;
+    // Change of the battery estimate that is shown, hours and part of it
+    static final double DEPLETION_MARGIN = 1;
+    static final double DEPLETION_PART = 0.1;
     static final int[] menu_items = {
             R.string.motor_on,
             R.string.motor_off,
-            R.string.refresh
+            R.string.refresh,
+            R.string.history
     };
     static final String[] menu_actions = {
             "motor_on",
             "motor_off",
-            "refresh"
+            "refresh",
+            "history"
     };
     private static final int MENU_ITEM_MOTOR_ON = 0;
     private static final int MENU_ITEM_MOTOR_OFF = 1;
     private static final int REFRESH = 2;
+    private static final int HISTORY = 3;
     Bundle[] mMenuItemsText = new Bundle[menu_items.length];
     CarDrawable carDrawable;
+    CarWatermark watermark;
+    Bundle[] data;
+    Bitmap car;
+    byte[] car_image;
     String car_id;
     BroadcastReceiver br;
+    AccessorySensor sensor;
+    boolean sensor_checked;
+    WristGestureDetector gestures;
+    EventHistory history;
+    boolean history_shown;
+    VoltageChart chart;
+    byte[] chart_image;
+    boolean chart_shown;
+    SpeculativeFrame pending_task;
+    String[] pending_parts;
+    Bitmap pending_bitmap;
+    byte[] pending_image;
+    boolean pending_shown;
+    final Runnable pending_timeout = new Runnable() {
+        @Override
+        public void run() {
+            // The command was not confirmed, show the real state again
+            boolean shown = pending_shown;
+            clearPending();
+            if (shown)
+                showCar();
+        }
+    };
+    int alarm_zones = -1;
+    // Car frames with one zone in alarm, by alarm_fields
+    byte[][] alarm_frames;
+    String[] alarm_parts;
+    AlarmFrames alarm_task;
+    boolean ambient;
+    String ambient_key;
+    Bitmap ambient_frame;
+    Paint ambient_paint;
+    Paint ambient_car_paint;
+    long az_end;
+    String countdown_text;
+    double depletion_hours = Double.NaN;
+    final Runnable countdown_action = new Runnable() {
+        @Override
+        public void run() {
+            tickCountdown();
+        }
+    };
+    final Runnable minute_action = new Runnable() {
+        @Override
+        public void run() {
+            tickMinute();
+        }
+    };
+    final Runnable chart_action = new Runnable() {
+        @Override
+        public void run() {
+            if (chart_shown && !ambient)
+                showChart(false);
+        }
+    };
+    final Runnable update_action = new Runnable() {
+        @Override
+        public void run() {
+            update();
+        }
+    };
+    final Runnable prefetch_action = new Runnable() {
+        @Override
+        public void run() {
+            history.prefetch();
+        }
+    };
+    final Runnable refresh_action = new Runnable() {
+        @Override
+        public void run() {
+            sendAction("refresh");
+        }
+    };
+    final Runnable menu_action = new Runnable() {
+        @Override
+        public void run() {
+            showMenu(mMenuItemsText);
+        }
+    };
     private Handler mHandler;
     private ControlViewGroup mLayout = null;
     private boolean mTextMenu = false;
@@ -133,6 +255,22 @@ class ControlSmartWatch2 extends ControlExtension {
         setupClickables(context);
         initializeMenus(context);
         carDrawable = new CarDrawable();
+        history = new EventHistory(context, R.id.history, R.layout.control_2_history_item);
+        gestures = new WristGestureDetector(new WristGestureDetector.Listener() {
+            @Override
+            public void onFlick() {
+                Handler handler = mHandler;
+                if (handler != null)
+                    handler.post(refresh_action);
+            }
+
+            @Override
+            public void onDoubleShake() {
+                Handler handler = mHandler;
+                if (handler != null)
+                    handler.post(menu_action);
+            }
+        });
     }
 
     /**
@@ -159,7 +297,7 @@ class ControlSmartWatch2 extends ControlExtension {
     private void initializeMenus(Context context) {
         for (int i = 0; i < menu_items.length; i++) {
             mMenuItemsText[i] = new Bundle();
-            mMenuItemsText[i].putInt(Control.Intents.EXTRA_MENU_ITEM_ID, MENU_ITEM_MOTOR_ON);
+            mMenuItemsText[i].putInt(Control.Intents.EXTRA_MENU_ITEM_ID, i);
             mMenuItemsText[i].putString(Control.Intents.EXTRA_MENU_ITEM_TEXT, context.getString(menu_items[i]));
         }
     }
@@ -167,6 +305,8 @@ class ControlSmartWatch2 extends ControlExtension {
     @Override
     public void onDestroy() {
         Log.d(ExtensionService.LOG_TAG, "ControlSmartWatch onDestroy");
+        clearPending();
+        cancelAlarmFrames();
         mHandler = null;
     }
 
@@ -182,6 +322,17 @@ class ControlSmartWatch2 extends ControlExtension {
 
     @Override
     public void onPause() {
+        stopGestures();
+        if (mHandler != null) {
+            mHandler.removeCallbacks(prefetch_action);
+            mHandler.removeCallbacks(update_action);
+            mHandler.removeCallbacks(minute_action);
+            mHandler.removeCallbacks(chart_action);
+        }
+        stopCountdown();
+        ambient = false;
+        ambient_key = null;
+        watermark = null;
         if (br != null) {
             mContext.unregisterReceiver(br);
             br = null;
@@ -192,29 +343,204 @@ class ControlSmartWatch2 extends ControlExtension {
     @Override
     public void onResume() {
         super.onResume();
-        update();
+        update(true);
+        alarm_zones = readAlarmZones();
         br = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                update();
+                // Only the alarm zones are read before the full update, an
+                // alarm is signalled even if the event has not moved
+                checkAlarm(SystemClock.elapsedRealtime());
+                // Pending updates are coalesced, the page is chosen by update
+                Handler handler = mHandler;
+                if (handler != null) {
+                    handler.removeCallbacks(update_action);
+                    handler.post(update_action);
+                }
             }
         };
         IntentFilter intentFilter = new IntentFilter("net.ugona.plus.UPDATE");
         mContext.registerReceiver(br, intentFilter);
+        scheduleMinute();
+        startGestures();
+    }
+
+    /**
+     * Listen to the watch accelerometer for wrist gestures. The samples are
+     * handled on the sensor thread in small batches at the lowest rate that
+     * still resolves a flick.
+     */
+    void startGestures() {
+        if (!sensor_checked) {
+            sensor_checked = true;
+            AccessorySensorManager manager = new AccessorySensorManager(mContext, mHostAppPackageName);
+            sensor = manager.getSensor(Registration.SensorTypeValue.ACCELEROMETER);
+        }
+        if (sensor == null)
+            return;
+        gestures.reset();
+        try {
+            sensor.registerBatchListener(gestures, Sensor.SensorRates.SENSOR_DELAY_UI,
+                    Sensor.SensorInterruptMode.SENSOR_INTERRUPT_DISABLED, 8, 200, true);
+        } catch (AccessorySensorException ex) {
+            Log.d(ExtensionService.LOG_TAG, "Failed to register sensor listener: " + ex);
+        }
+    }
+
+    void stopGestures() {
+        if (sensor != null)
+            sensor.unregisterListener();
+        if (mHandler != null) {
+            mHandler.removeCallbacks(refresh_action);
+            mHandler.removeCallbacks(menu_action);
+        }
     }
 
     void update() {
+        update(false);
+    }
+
+    /**
+     * Read the active alarm zones of the car.
+     *
+     * @return Bit mask of alarm_fields, -1 if the state could not be read.
+     */
+    int readAlarmZones() {
+        Cursor c = null;
+        try {
+            c = mContext.getContentResolver().query(CarWatermark.getCarUri(car_id), alarm_fields, null, null, null);
+            if ((c == null) || !c.moveToFirst())
+                return -1;
+            int zones = 0;
+            for (int i = 0; i < alarm_fields.length; i++) {
+                if (AlarmNotifier.isTrue(c, alarm_fields[i]))
+                    zones |= 1 << i;
+            }
+            return zones;
+        } catch (Exception ex) {
+            Log.d(ExtensionService.LOG_TAG, "Failed to read alarm state: " + ex);
+            return -1;
+        } finally {
+            if (c != null)
+                c.close();
+        }
+    }
+
+    /**
+     * Signal a zone that went into alarm since the last check, before the
+     * full state is read. The precomposed frame of the zone is shown on the
+     * car page, the update that follows draws the same red layers.
+     *
+     * @param received Time the update was received, for the latency log.
+     */
+    void checkAlarm(long received) {
+        int zones = readAlarmZones();
+        if (zones < 0)
+            return;
+        int raised = (alarm_zones < 0) ? 0 : zones & ~alarm_zones;
+        alarm_zones = zones;
+        if (raised == 0)
+            return;
+
+        HostCapabilities capabilities = getHostCapabilities();
+        if (capabilities.hasVibrator())
+            startVibrator(ALARM_ON, ALARM_OFF, ALARM_REPEATS);
+        for (int i = 0; i < capabilities.getLedCount(); i++) {
+            startLedPattern(i, Color.RED, ALARM_ON, ALARM_OFF, ALARM_REPEATS);
+        }
+        Log.d(ExtensionService.LOG_TAG, "Alarm " + raised + " signalled in " + (SystemClock.elapsedRealtime() - received) + " ms");
+
+        // The update that follows reads the state and shows the car page
+        history_shown = false;
+        chart_shown = false;
+        watermark = null;
+        if (ambient) {
+            // Wake the screen, the alarm is not shown in monochrome
+            setScreenState(Control.Intents.SCREEN_STATE_ON);
+            setAmbient(false);
+        }
+        if ((data == null) || (alarm_frames == null))
+            return;
+        for (int i = 0; i < alarm_fields.length; i++) {
+            if (((raised & (1 << i)) != 0) && (alarm_frames[i] != null)) {
+                showLayout(R.layout.control_2, data);
+                sendImage(R.id.car, alarm_frames[i]);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Render the alarm frames of the guarded car in the background, once
+     * for each set of layers.
+     */
+    void prepareAlarmFrames() {
+        String[][] parts = new String[alarm_fields.length][];
+        boolean any = false;
+        for (int i = 0; i < alarm_fields.length; i++) {
+            parts[i] = carDrawable.predictAlarm(alarm_fields[i]);
+            any |= (parts[i] != null);
+        }
+        if (!any) {
+            cancelAlarmFrames();
+            return;
+        }
+        if (Arrays.equals(carDrawable.parts_id, alarm_parts))
+            return;
+        cancelAlarmFrames();
+        alarm_parts = carDrawable.parts_id.clone();
+        alarm_task = new AlarmFrames(carDrawable.resources, parts);
+        alarm_task.execute();
+    }
+
+    void cancelAlarmFrames() {
+        if (alarm_task != null)
+            alarm_task.cancel(false);
+        alarm_task = null;
+        alarm_parts = null;
+        alarm_frames = null;
+    }
+
+    /**
+     * Refresh the car state. Only the last event is read first, the full
+     * state is queried when it has changed. A changed state is shown on the
+     * car page at once, on the other pages as they refresh, and in ambient
+     * mode on the next minute. A new alarm brings the car page up.
+     *
+     * @param show Show the current page even if nothing has changed.
+     */
+    void update(boolean show) {
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
         car_id = preferences.getString(State.ID, "");
 
-        Bundle[] data = null;
-        Bitmap car = null;
+        CarWatermark current = CarWatermark.read(mContext, car_id);
+        if ((current != null) && current.same(watermark)) {
+            if (show)
+                showPage();
+            return;
+        }
+        watermark = current;
+
+        data = null;
+        car = null;
 
-        Uri uri = Uri.parse("content://net.ugona.plus/car/" + car_id);
+        Uri uri = CarWatermark.getCarUri(car_id);
         Cursor c = mContext.getContentResolver().query(uri, fields, null, null, null);
         if (c != null) {
             c.moveToFirst();
-            car = carDrawable.getBitmap(mContext, c, 126, 176);
+            boolean changed = carDrawable.prepare(mContext, c);
+            if ((pending_parts != null) && Arrays.equals(pending_parts, carDrawable.parts_id)) {
+                // The command has been confirmed, the frame is ready
+                carDrawable.setBitmap(pending_bitmap);
+                car = pending_bitmap;
+                car_image = pending_image;
+                clearPending();
+            } else if ((changed || (carDrawable.bitmap == null)) && (carDrawable.resources != null)) {
+                car = carDrawable.draw(126, 176);
+                car_image = null;
+            } else {
+                car = carDrawable.bitmap;
+            }
 
             Bundle b1 = new Bundle();
             b1.putInt(Control.Intents.EXTRA_LAYOUT_REFERENCE, R.id.voltage);
@@ -223,13 +549,9 @@ class ControlSmartWatch2 extends ControlExtension {
             Bundle b2 = new Bundle();
             b2.putInt(Control.Intents.EXTRA_LAYOUT_REFERENCE, R.id.temperature);
             String temp = "--";
-            try {
-                String[] temp_data = CarDrawable.getString(c, Names.TEMPERATURE).split(";");
-                int temp_value = Integer.parseInt(temp_data[0].split(":")[1]);
-                temp = (temp_value + CarDrawable.getLong(c, Names.TEMP_SIFT)) + "";
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            }
+            float temp_value = CarHistory.getTemperature(c);
+            if (!Float.isNaN(temp_value))
+                temp = (int) temp_value + "";
             b2.putString(Control.Intents.EXTRA_TEXT, temp + " \u00B0C");
 
             Bundle b3 = new Bundle();
@@ -250,19 +572,421 @@ class ControlSmartWatch2 extends ControlExtension {
             b4.putInt(Control.Intents.EXTRA_LAYOUT_REFERENCE, R.id.time);
             b4.putString(Control.Intents.EXTRA_TEXT, time);
 
-            data = new Bundle[4];
+            az_end = 0;
+            if (CarDrawable.getBoolean(c, Names.AZ)) {
+                long start = CarDrawable.getLong(c, Names.AZ_START);
+                long stop = CarDrawable.getLong(c, Names.AZ_STOP);
+                if (stop > now.getTime()) {
+                    az_end = stop;
+                } else if (start > 0) {
+                    az_end = start + AZ_TIME;
+                }
+            }
+            Bundle b5 = new Bundle();
+            b5.putInt(Control.Intents.EXTRA_LAYOUT_REFERENCE, R.id.countdown);
+            b5.putString(Control.Intents.EXTRA_TEXT, formatCountdown(az_end - now.getTime()));
+
+            Bundle b6 = new Bundle();
+            b6.putInt(Control.Intents.EXTRA_LAYOUT_REFERENCE, R.id.depletion);
+            b6.putString(Control.Intents.EXTRA_TEXT, getDepletion());
+
+            data = new Bundle[6];
 
             data[0] = b1;
             data[1] = b2;
             data[2] = b3;
             data[3] = b4;
+            data[4] = b5;
+            data[5] = b6;
 
             c.close();
+            prepareAlarmFrames();
+        }
+
+        if (history_shown && !ambient) {
+            showHistory();
+        } else if (chart_shown && !ambient) {
+            refreshChart();
+        } else if (show || !ambient) {
+            showPage();
+        }
+    }
+
+    /**
+     * Show the current page with the state that has been read.
+     */
+    void showPage() {
+        if (ambient) {
+            showAmbient();
+        } else if (history_shown) {
+            showHistory();
+        } else if (chart_shown) {
+            showChart();
+        } else {
+            showCar();
         }
+    }
+
+    /**
+     * Redraw the chart once the car update thread has recorded the new
+     * sample.
+     */
+    void refreshChart() {
+        final String id = car_id;
+        CarUpdateReceiver.post(new Runnable() {
+            @Override
+            public void run() {
+                CarHistory.record(mContext, id);
+                Handler handler = mHandler;
+                if (handler != null)
+                    handler.post(chart_action);
+            }
+        });
+    }
 
+    void showCar() {
+        history_shown = false;
+        chart_shown = false;
+        pending_shown = false;
+        stopCountdown();
+        countdown_text = formatCountdown(az_end - System.currentTimeMillis());
+        if (data != null)
+            data[4].putString(Control.Intents.EXTRA_TEXT, countdown_text);
         showLayout(R.layout.control_2, data);
+        if (car != null) {
+            if (car_image == null)
+                car_image = encodeImage(car);
+            sendImage(R.id.car, car_image);
+        }
+        scheduleCountdown();
+    }
+
+    /**
+     * Text of the battery estimate. The shown estimate is kept until the new
+     * one differs by more than the margin, so the text does not change on
+     * every update.
+     */
+    String getDepletion() {
+        double hours = DepletionEstimator.getHours(mContext, car_id);
+        if (Double.isNaN(hours)) {
+            depletion_hours = Double.NaN;
+        } else if (Double.isNaN(depletion_hours)
+                || (Math.abs(hours - depletion_hours) > Math.max(DEPLETION_MARGIN, depletion_hours * DEPLETION_PART))) {
+            depletion_hours = hours;
+        }
+        if (Double.isNaN(depletion_hours))
+            return "";
+        return mContext.getString(R.string.depletion, Math.round(depletion_hours));
+    }
+
+    /**
+     * Refresh what changes with time alone at the start of each minute: the
+     * ambient frame, the battery estimate and the chart.
+     */
+    void tickMinute() {
+        if (ambient) {
+            update(true);
+        } else if (chart_shown) {
+            showChart(false);
+        } else if (!history_shown && (data != null)) {
+            String text = getDepletion();
+            if (!text.equals(data[5].getString(Control.Intents.EXTRA_TEXT))) {
+                data[5].putString(Control.Intents.EXTRA_TEXT, text);
+                sendText(R.id.depletion, text);
+            }
+        }
+        scheduleMinute();
+    }
+
+    /**
+     * Update the autostart countdown. Only the countdown text is sent, the
+     * state is not read again.
+     */
+    void tickCountdown() {
+        if (history_shown || chart_shown || ambient)
+            return;
+        long remaining = az_end - System.currentTimeMillis();
+        String text = formatCountdown(remaining);
+        if (!text.equals(countdown_text)) {
+            countdown_text = text;
+            sendText(R.id.countdown, text);
+        }
+        scheduleCountdown();
+    }
+
+    /**
+     * Schedule the next countdown tick on the second the shown value
+     * changes.
+     */
+    void scheduleCountdown() {
+        if (mHandler == null)
+            return;
+        mHandler.removeCallbacks(countdown_action);
+        long remaining = az_end - System.currentTimeMillis();
+        if (remaining <= 0)
+            return;
+        long delay = remaining % SECOND;
+        mHandler.postDelayed(countdown_action, (delay == 0) ? SECOND : delay);
+    }
+
+    void stopCountdown() {
+        if (mHandler != null)
+            mHandler.removeCallbacks(countdown_action);
+    }
+
+    static String formatCountdown(long remaining) {
+        if (remaining <= 0)
+            return "";
+        long seconds = (remaining + SECOND - 1) / SECOND;
+        long s = seconds % 60;
+        return (seconds / 60) + ((s < 10) ? ":0" : ":") + s;
+    }
+
+    @Override
+    public void onActiveLowPowerModeChange(final boolean lowPowerModeOn) {
+        Log.d(ExtensionService.LOG_TAG, "onActiveLowPowerModeChange() - " + lowPowerModeOn);
+        if (lowPowerModeOn == ambient)
+            return;
+        setAmbient(lowPowerModeOn);
+        update(true);
+    }
+
+    /**
+     * Switch the ambient mode. In ambient mode the car updates are not sent
+     * as they come, the frame is refreshed at the start of each minute.
+     */
+    void setAmbient(boolean on) {
+        ambient = on;
+        ambient_key = null;
+        if (on)
+            stopCountdown();
+        if (mHandler == null)
+            return;
+        mHandler.removeCallbacks(update_action);
+        scheduleMinute();
+    }
+
+    void scheduleMinute() {
+        if (mHandler == null)
+            return;
+        long now = System.currentTimeMillis();
+        mHandler.removeCallbacks(minute_action);
+        mHandler.postDelayed(minute_action, MINUTE - now % MINUTE);
+    }
+
+    /**
+     * Show the reduced monochrome frame: the car silhouette, the clock and
+     * the main voltage. Nothing is rendered or sent if they have not changed
+     * since the last frame.
+     */
+    void showAmbient() {
+        String time = android.text.format.DateFormat.getTimeFormat(mContext).format(new Date());
+        String voltage = "";
+        if (data != null)
+            voltage = data[0].getString(Control.Intents.EXTRA_TEXT);
+        String key = time + "|" + voltage + "|" + Arrays.toString(carDrawable.parts_id);
+        if (key.equals(ambient_key))
+            return;
+        ambient_key = key;
+
+        int width = getSupportedControlWidth(mContext);
+        int height = getSupportedControlHeight(mContext);
+        if (ambient_frame == null) {
+            ambient_frame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            // No anti aliasing, the frame is shown in black and white
+            ambient_paint = new Paint();
+            ambient_paint.setColor(Color.WHITE);
+            ambient_paint.setTextAlign(Paint.Align.RIGHT);
+            ambient_car_paint = new Paint();
+            ambient_car_paint.setColorFilter(new PorterDuffColorFilter(Color.WHITE, PorterDuff.Mode.SRC_ATOP));
+        }
+        ambient_frame.eraseColor(Color.BLACK);
+        Canvas canvas = new Canvas(ambient_frame);
         if (car != null)
-            sendImage(R.id.car, car);
+            canvas.drawBitmap(car, 6, 6, ambient_car_paint);
+        float large = mContext.getResources().getDimensionPixelSize(R.dimen.smart_watch_2_text_size_large);
+        float medium = mContext.getResources().getDimensionPixelSize(R.dimen.smart_watch_2_text_size_medium);
+        ambient_paint.setTextSize(large);
+        canvas.drawText(time, width - 6, 6 + large, ambient_paint);
+        ambient_paint.setTextSize(medium);
+        canvas.drawText(voltage, width - 6, 6 + large * 1.4f + medium, ambient_paint);
+        showBitmap(ambient_frame);
+    }
+
+    /**
+     * Render the frame expected after an engine command in the background,
+     * so that it can be sent as soon as the state update confirms it.
+     *
+     * @param engine True if the engine is being started.
+     */
+    void speculate(boolean engine) {
+        clearPending();
+        String[] parts = carDrawable.predictEngine(engine);
+        if ((parts == null) || Arrays.equals(parts, carDrawable.parts_id))
+            return;
+        pending_task = new SpeculativeFrame(carDrawable.resources, parts);
+        pending_task.execute();
+        if (mHandler != null)
+            mHandler.postDelayed(pending_timeout, PENDING_TIME);
+    }
+
+    void clearPending() {
+        if (pending_task != null)
+            pending_task.cancel(false);
+        if (mHandler != null)
+            mHandler.removeCallbacks(pending_timeout);
+        pending_task = null;
+        pending_parts = null;
+        pending_bitmap = null;
+        pending_image = null;
+        pending_shown = false;
+    }
+
+    class AlarmFrames extends AsyncTask<Void, Void, byte[][]> {
+
+        final Resources resources;
+        final String[][] parts;
+
+        AlarmFrames(Resources resources, String[][] parts) {
+            this.resources = resources;
+            this.parts = parts;
+        }
+
+        @Override
+        protected byte[][] doInBackground(Void... params) {
+            byte[][] frames = new byte[parts.length][];
+            Bitmap bitmap = Bitmap.createBitmap(126, 176, Bitmap.Config.ARGB_8888);
+            for (int i = 0; (i < parts.length) && !isCancelled(); i++) {
+                if (parts[i] == null)
+                    continue;
+                bitmap.eraseColor(Color.TRANSPARENT);
+                CarDrawable.draw(resources, parts[i], bitmap);
+                frames[i] = encodeImage(bitmap);
+            }
+            return frames;
+        }
+
+        @Override
+        protected void onPostExecute(byte[][] frames) {
+            if (alarm_task != this)
+                return;
+            alarm_task = null;
+            alarm_frames = frames;
+        }
+    }
+
+    class SpeculativeFrame extends AsyncTask<Void, Void, Bitmap> {
+
+        final Resources resources;
+        final String[] parts;
+        byte[] image;
+
+        SpeculativeFrame(Resources resources, String[] parts) {
+            this.resources = resources;
+            this.parts = parts;
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            Bitmap bitmap = Bitmap.createBitmap(126, 176, Bitmap.Config.ARGB_8888);
+            CarDrawable.draw(resources, parts, bitmap);
+            image = encodeImage(bitmap);
+            return bitmap;
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap bitmap) {
+            if (pending_task != this)
+                return;
+            pending_task = null;
+            if (Arrays.equals(parts, carDrawable.parts_id)) {
+                // Confirmed before the frame was ready
+                clearPending();
+                return;
+            }
+            pending_parts = parts;
+            pending_bitmap = bitmap;
+            pending_image = image;
+            SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+            if (!history_shown && !chart_shown && !ambient && preferences.getBoolean(State.SHOW_PENDING, false)) {
+                sendImage(R.id.car, image);
+                sendText(R.id.time, PENDING_TEXT);
+                pending_shown = true;
+            }
+        }
+    }
+
+    /**
+     * Show the event history list. Only the count and the first screen are
+     * sent, the rest is read when the host asks for it.
+     */
+    void showHistory() {
+        history_shown = true;
+        chart_shown = false;
+        stopCountdown();
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        car_id = preferences.getString(State.ID, "");
+        int count = history.open(car_id);
+        showLayout(R.layout.control_2_history, null);
+        sendListCountWithContent(R.id.history, count, history.getFirstScreen());
+    }
+
+    void showChart() {
+        showChart(true);
+    }
+
+    /**
+     * Show the voltage chart page. The chart is drawn again only when a new
+     * sample has been recorded since it was last drawn. The samples are
+     * recorded by the car update thread, not here.
+     *
+     * @param show Show the page even if the chart has not changed.
+     */
+    void showChart(boolean show) {
+        chart_shown = true;
+        history_shown = false;
+        stopCountdown();
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        car_id = preferences.getString(State.ID, "");
+        CarHistory car_history = CarHistory.get(mContext, car_id);
+        if (chart == null) {
+            chart = new VoltageChart(
+                    mContext.getResources().getDimensionPixelSize(R.dimen.smart_watch_2_chart_width),
+                    mContext.getResources().getDimensionPixelSize(R.dimen.smart_watch_2_chart_height),
+                    mContext.getResources().getDimensionPixelSize(R.dimen.smart_watch_2_text_size_small));
+        }
+        boolean changed = (car_history != null) && ((chart_image == null) || !chart.isDrawn(car_id, car_history));
+        if (changed)
+            chart_image = encodeImage(chart.draw(car_id, car_history));
+        if (show)
+            showLayout(R.layout.control_2_chart, null);
+        if ((show || changed) && (chart_image != null))
+            sendImage(R.id.chart, chart_image);
+    }
+
+    @Override
+    public void onSwipe(int direction) {
+        if (history_shown)
+            return;
+        if ((direction == Control.Intents.SWIPE_DIRECTION_LEFT) && !chart_shown) {
+            showChart();
+        } else if ((direction == Control.Intents.SWIPE_DIRECTION_RIGHT) && chart_shown) {
+            chart_shown = false;
+            update(true);
+        }
+    }
+
+    @Override
+    public void onRequestListItem(final int layoutReference, final int listItemPosition) {
+        if (layoutReference != R.id.history)
+            return;
+        ControlListItem item = history.request(listItemPosition);
+        if (item != null)
+            sendListItem(item);
+        if (mHandler != null) {
+            mHandler.removeCallbacks(prefetch_action);
+            mHandler.post(prefetch_action);
+        }
     }
 
     @Override
@@ -274,24 +998,41 @@ class ControlSmartWatch2 extends ControlExtension {
         } else if (action == Control.Intents.KEY_ACTION_RELEASE
                 && keyCode == Control.KeyCodes.KEYCODE_BACK) {
             Log.d(ExtensionService.LOG_TAG, "onKey() - back button intercepted.");
+            if (history_shown || chart_shown) {
+                history_shown = false;
+                chart_shown = false;
+                update(true);
+            }
         }
     }
 
     @Override
     public void onMenuItemSelected(final int menuItem) {
         Log.d(ExtensionService.LOG_TAG, "onMenuItemSelected() - menu item " + menuItem);
+        if (menuItem == HISTORY) {
+            showHistory();
+            return;
+        }
+        sendAction(menu_actions[menuItem]);
+        if ((menuItem == MENU_ITEM_MOTOR_ON) || (menuItem == MENU_ITEM_MOTOR_OFF))
+            speculate(menuItem == MENU_ITEM_MOTOR_ON);
+    }
+
+    void sendAction(String action) {
         Intent i = new Intent("net.ugona.plus.ACTION");
-        i.putExtra("ACTION", menu_actions[menuItem]);
+        i.putExtra("ACTION", action);
         i.putExtra("ID", car_id);
         mContext.sendBroadcast(i);
     }
 
+    @Override
+    public void onObjectClick(final ControlObjectClickEvent event) {
+        if (!history_shown && !chart_shown)
+            mLayout.onClick(event.getLayoutReference());
+    }
+
     private void setupClickables(Context context) {
-        LayoutInflater inflater = (LayoutInflater) context.getSystemService
-                (Context.LAYOUT_INFLATER_SERVICE);
-        View layout = inflater.inflate(R.layout.control_2
-                , null);
-        mLayout = (ControlViewGroup) parseLayout(layout);
+        mLayout = parseLayout(R.layout.control_2);
         ControlView v = mLayout.findViewById(R.id.data);
         v.setOnClickListener(new ControlView.OnClickListener() {
             @Override
@@ -0,0 +1,154 @@
+package net.ugona.plus.watch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Estimates when the battery of a parked car falls to the voltage it can
+ * still start from. The main voltage is fitted by a line with exponentially
+ * decaying weights, kept as five running sums. The sums are in hours
+ * relative to the last sample, so a new sample shifts and decays them and
+ * adds itself in constant time, and only the sums are stored to survive a
+ * restart.
+ */
+class DepletionEstimator {
+
+    static final String PREFS = "depletion";
+
+    // Voltage the engine is not expected to start below
+    static final float THRESHOLD = 11.8f;
+
+    // Above it the battery is being charged, the fit starts again
+    static final float CHARGING = 13.2f;
+
+    // Time constant of the weights, hours
+    static final double TAU = 24;
+
+    // Data needed for an estimate: total weight and time span, hours
+    static final double MIN_WEIGHT = 3;
+    static final double MIN_SPAN = 1;
+
+    // Estimates longer than this are not shown, hours
+    static final double MAX_HOURS = 30 * 24;
+
+    static final double HOUR = 60 * 60 * 1000;
+
+    static final String TIME = "time_";
+    static final String S0 = "s0_";
+    static final String ST = "st_";
+    static final String SV = "sv_";
+    static final String STT = "stt_";
+    static final String STV = "stv_";
+    static final String SPAN = "span_";
+
+    long time;
+    double s0;
+    double st;
+    double sv;
+    double stt;
+    double stv;
+    double span;
+
+    static DepletionEstimator read(Context context, String car_id) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        DepletionEstimator estimator = new DepletionEstimator();
+        estimator.time = preferences.getLong(TIME + car_id, 0);
+        estimator.s0 = getDouble(preferences, S0 + car_id);
+        estimator.st = getDouble(preferences, ST + car_id);
+        estimator.sv = getDouble(preferences, SV + car_id);
+        estimator.stt = getDouble(preferences, STT + car_id);
+        estimator.stv = getDouble(preferences, STV + car_id);
+        estimator.span = getDouble(preferences, SPAN + car_id);
+        return estimator;
+    }
+
+    /**
+     * Add a main voltage sample of a car and store the sums.
+     */
+    static void add(Context context, String car_id, long time, float voltage) {
+        if (Float.isNaN(voltage) || (voltage <= 0))
+            return;
+        DepletionEstimator estimator = read(context, car_id);
+        if (!estimator.add(time, voltage))
+            return;
+        SharedPreferences.Editor ed = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit();
+        ed.putLong(TIME + car_id, estimator.time);
+        putDouble(ed, S0 + car_id, estimator.s0);
+        putDouble(ed, ST + car_id, estimator.st);
+        putDouble(ed, SV + car_id, estimator.sv);
+        putDouble(ed, STT + car_id, estimator.stt);
+        putDouble(ed, STV + car_id, estimator.stv);
+        putDouble(ed, SPAN + car_id, estimator.span);
+        State.apply(ed);
+    }
+
+    /**
+     * Get the hours until the battery of a car reaches the threshold, counted
+     * from now.
+     *
+     * @return The hours, NaN if the voltage is not falling or the data is not
+     * enough for an estimate.
+     */
+    static double getHours(Context context, String car_id) {
+        return read(context, car_id).getHours(System.currentTimeMillis());
+    }
+
+    boolean add(long time, float voltage) {
+        if (time <= this.time)
+            return false;
+        if (voltage > CHARGING) {
+            reset(time);
+            return true;
+        }
+        if (s0 > 0) {
+            // Move the origin to the new sample and decay the old weights
+            double d = (time - this.time) / HOUR;
+            double w = Math.exp(-d / TAU);
+            stt = (stt - 2 * d * st + d * d * s0) * w;
+            stv = (stv - d * sv) * w;
+            st = (st - d * s0) * w;
+            sv *= w;
+            s0 *= w;
+            span += d;
+        }
+        // The new sample is at time 0, it adds nothing to the time sums
+        s0 += 1;
+        sv += voltage;
+        this.time = time;
+        return true;
+    }
+
+    void reset(long time) {
+        this.time = time;
+        s0 = 0;
+        st = 0;
+        sv = 0;
+        stt = 0;
+        stv = 0;
+        span = 0;
+    }
+
+    double getHours(long now) {
+        if ((s0 < MIN_WEIGHT) || (span < MIN_SPAN))
+            return Double.NaN;
+        double det = s0 * stt - st * st;
+        if (det <= 0)
+            return Double.NaN;
+        double slope = (s0 * stv - st * sv) / det;
+        if (slope >= 0)
+            return Double.NaN;
+        double voltage = (sv - slope * st) / s0;
+        double hours = (THRESHOLD - voltage) / slope - (now - time) / HOUR;
+        if (hours > MAX_HOURS)
+            return Double.NaN;
+        return Math.max(hours, 0);
+    }
+
+    static double getDouble(SharedPreferences preferences, String key) {
+        return Double.longBitsToDouble(preferences.getLong(key, Double.doubleToLongBits(0)));
+    }
+
+    static void putDouble(SharedPreferences.Editor ed, String key, double value) {
+        ed.putLong(key, Double.doubleToLongBits(value));
+    }
+}
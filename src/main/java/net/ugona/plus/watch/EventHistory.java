@@ -0,0 +1,205 @@
+package net.ugona.plus.watch;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.sonyericsson.extras.liveware.aef.control.Control;
+import com.sonyericsson.extras.liveware.aef.notification.Notification;
+import com.sonyericsson.extras.liveware.extension.util.control.ControlListItem;
+import com.sonyericsson.extras.liveware.extension.util.notification.NotificationUtil;
+
+import java.text.DateFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Car event history for the watch list, newest first. The events posted by
+ * {@link AlarmNotifier} are read from the notification provider a page at a
+ * time, only when the host asks for a position in the page. Built list items
+ * are kept in a small LRU of pages, and the page ahead of the scroll
+ * direction is loaded before the host asks for it.
+ */
+class EventHistory {
+
+    static final int PAGE_SIZE = 20;
+    static final int MAX_PAGES = 8;
+
+    // Items that fit on the screen, sent inline with the count
+    static final int SCREEN_ITEMS = 4;
+
+    // Distance to the end of the page that triggers loading the next one
+    static final int PREFETCH = 8;
+
+    // One row with the number of events, whatever the history length
+    static final String[] count_fields = {
+            "COUNT(*)"
+    };
+
+    static final String[] fields = {
+            NotificationUtil.EVENT_ID,
+            Notification.EventColumns.PUBLISHED_TIME,
+            Notification.EventColumns.TITLE
+    };
+
+    static final String SELECTION = Notification.EventColumns.FRIEND_KEY + " = ? AND "
+            + Notification.SourceColumns.EXTENSION_SPECIFIC_ID + " = ?";
+
+    static final String ORDER = Notification.EventColumns.PUBLISHED_TIME + " DESC";
+
+    final Context context;
+    final int layout_reference;
+    final int item_layout;
+    final DateFormat time_format;
+    final DateFormat date_format;
+
+    final LinkedHashMap<Integer, ControlListItem[]> pages = new LinkedHashMap<Integer, ControlListItem[]>(MAX_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ControlListItem[]> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+
+    String car_id;
+    int count;
+    int last_position;
+    int direction;
+
+    EventHistory(Context context, int layout_reference, int item_layout) {
+        this.context = context;
+        this.layout_reference = layout_reference;
+        this.item_layout = item_layout;
+        time_format = android.text.format.DateFormat.getTimeFormat(context);
+        date_format = android.text.format.DateFormat.getDateFormat(context);
+    }
+
+    /**
+     * Forget the cached items and count the events of a car.
+     *
+     * @return The number of events.
+     */
+    int open(String car_id) {
+        this.car_id = car_id;
+        pages.clear();
+        last_position = 0;
+        direction = 1;
+        count = 0;
+        Cursor c = null;
+        try {
+            c = NotificationUtil.queryEvents(context, count_fields, SELECTION, selectionArgs(), null);
+            if ((c != null) && c.moveToFirst())
+                count = c.getInt(0);
+        } catch (Exception ex) {
+            Log.d(ExtensionService.LOG_TAG, "Failed to count events: " + ex);
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        return count;
+    }
+
+    /**
+     * Content for the first screen of the list, to send with the count.
+     */
+    Bundle[] getFirstScreen() {
+        int n = Math.min(SCREEN_ITEMS, count);
+        Bundle[] res = new Bundle[n];
+        for (int i = 0; i < n; i++) {
+            ControlListItem item = getItem(i);
+            if (item == null)
+                return new Bundle[0];
+            Bundle b = new Bundle();
+            b.putInt(Control.Intents.EXTRA_DATA_XML_LAYOUT, item.dataXmlLayout);
+            b.putInt(Control.Intents.EXTRA_LIST_ITEM_ID, item.listItemId);
+            b.putInt(Control.Intents.EXTRA_LIST_ITEM_POSITION, item.listItemPosition);
+            b.putParcelableArray(Control.Intents.EXTRA_LAYOUT_DATA, item.layoutData);
+            res[i] = b;
+        }
+        return res;
+    }
+
+    /**
+     * Get the item at a position requested by the host, and note the scroll
+     * direction for prefetching.
+     */
+    ControlListItem request(int position) {
+        if (position != last_position)
+            direction = (position > last_position) ? 1 : -1;
+        last_position = position;
+        return getItem(position);
+    }
+
+    /**
+     * Load the page ahead of the last requested position if it is not cached
+     * yet.
+     */
+    void prefetch() {
+        int position = last_position + direction * PREFETCH;
+        if ((position < 0) || (position >= count))
+            return;
+        int page = position / PAGE_SIZE;
+        if (!pages.containsKey(page))
+            loadPage(page);
+    }
+
+    ControlListItem getItem(int position) {
+        if ((position < 0) || (position >= count))
+            return null;
+        int page = position / PAGE_SIZE;
+        ControlListItem[] items = pages.get(page);
+        if (items == null)
+            items = loadPage(page);
+        if (items == null)
+            return null;
+        return items[position % PAGE_SIZE];
+    }
+
+    ControlListItem[] loadPage(int page) {
+        int offset = page * PAGE_SIZE;
+        ControlListItem[] items = new ControlListItem[PAGE_SIZE];
+        Cursor c = null;
+        try {
+            c = NotificationUtil.queryEvents(context, fields, SELECTION, selectionArgs(),
+                    ORDER + " LIMIT " + PAGE_SIZE + " OFFSET " + offset);
+            if (c == null)
+                return null;
+            long today = System.currentTimeMillis() - CarWatermark.STALE_TIME;
+            for (int i = 0; (i < PAGE_SIZE) && c.moveToNext(); i++) {
+                long time = c.getLong(1);
+                String when = (time > today) ? time_format.format(time) : date_format.format(time);
+                items[i] = createItem(offset + i, (int) c.getLong(0), when, c.getString(2));
+            }
+        } catch (Exception ex) {
+            Log.d(ExtensionService.LOG_TAG, "Failed to read events: " + ex);
+            return null;
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        pages.put(page, items);
+        return items;
+    }
+
+    ControlListItem createItem(int position, int id, String time, String text) {
+        Bundle b1 = new Bundle();
+        b1.putInt(Control.Intents.EXTRA_LAYOUT_REFERENCE, R.id.time);
+        b1.putString(Control.Intents.EXTRA_TEXT, time);
+
+        Bundle b2 = new Bundle();
+        b2.putInt(Control.Intents.EXTRA_LAYOUT_REFERENCE, R.id.text);
+        b2.putString(Control.Intents.EXTRA_TEXT, text);
+
+        ControlListItem item = new ControlListItem();
+        item.layoutReference = layout_reference;
+        item.dataXmlLayout = item_layout;
+        item.listItemId = id;
+        item.listItemPosition = position;
+        item.layoutData = new Bundle[]{b1, b2};
+        return item;
+    }
+
+    String[] selectionArgs() {
+        return new String[]{car_id, AlarmNotifier.SOURCE};
+    }
+}
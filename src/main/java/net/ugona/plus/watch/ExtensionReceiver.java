@@ -34,19 +34,88 @@ package net.ugona.plus.watch;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.sonyericsson.extras.liveware.aef.control.Control;
+import com.sonyericsson.extras.liveware.aef.notification.Notification;
+import com.sonyericsson.extras.liveware.aef.registration.Registration;
+import com.sonyericsson.extras.liveware.extension.util.widget.WidgetExtension;
+
 /**
  * The extension receiver receives the extension intents and starts the
- * extension service when it arrives.
+ * extension service when it arrives. Intents addressed to another extension
+ * and repeated idempotent intents are dropped here, so they don't wake up the
+ * service.
  */
 public class ExtensionReceiver extends BroadcastReceiver {
 
+    static final long DUPLICATE_WINDOW = 2000;
+
+    static final String CONTROL_PREFIX = "com.sonyericsson.extras.aef.control.";
+    static final String WIDGET_PREFIX = "com.sonyericsson.extras.aef.widget.";
+    static final String NOTIFICATION_PREFIX = "com.sonyericsson.extras.liveware.aef.notification.";
+
+    static int forwarded;
+    static int filteredKey;
+    static int filteredDuplicate;
+
+    static String lastIntent;
+    static long lastIntentTime;
+
     @Override
     public void onReceive(final Context context, final Intent intent) {
-
-        Log.d(ExtensionService.LOG_TAG, "onReceive: " + intent.getAction());
+        String action = intent.getAction();
+        if (!isForExtension(intent)) {
+            filteredKey++;
+            Log.d(ExtensionService.LOG_TAG, "onReceive: dropped " + action + " for "
+                    + intent.getStringExtra(Control.Intents.EXTRA_EXTENSION_KEY) + statistic());
+            return;
+        }
+        if (isDuplicate(intent)) {
+            filteredDuplicate++;
+            Log.d(ExtensionService.LOG_TAG, "onReceive: dropped duplicate " + action + statistic());
+            return;
+        }
+        forwarded++;
+        Log.d(ExtensionService.LOG_TAG, "onReceive: " + action + statistic());
         intent.setClass(context, ExtensionService.class);
         context.startService(intent);
     }
+
+    static String statistic() {
+        return " (forwarded " + forwarded + ", wrong key " + filteredKey + ", duplicate "
+                + filteredDuplicate + ")";
+    }
+
+    static boolean isForExtension(Intent intent) {
+        String action = intent.getAction();
+        if (action == null)
+            return false;
+        if (action.startsWith(CONTROL_PREFIX)
+                || action.startsWith(WIDGET_PREFIX)
+                || action.startsWith(NOTIFICATION_PREFIX)
+                || action.equals(WidgetExtension.SCHEDULED_REFRESH_INTENT))
+            return ExtensionService.EXTENSION_KEY.equals(
+                    intent.getStringExtra(Control.Intents.EXTRA_EXTENSION_KEY));
+        return true;
+    }
+
+    static boolean isDuplicate(Intent intent) {
+        String action = intent.getAction();
+        if (!Registration.Intents.EXTENSION_REGISTER_REQUEST_INTENT.equals(action)
+                && !Registration.Intents.ACCESSORY_CONNECTION_INTENT.equals(action)
+                && !Intent.ACTION_LOCALE_CHANGED.equals(action)
+                && !Notification.Intents.REFRESH_REQUEST_INTENT.equals(action)
+                && !WidgetExtension.SCHEDULED_REFRESH_INTENT.equals(action))
+            return false;
+        String key = action + "|" + intent.getStringExtra(Registration.Intents.EXTRA_AHA_PACKAGE_NAME)
+                + "|" + intent.getIntExtra(Registration.Intents.EXTRA_CONNECTION_STATUS, -1);
+        long now = SystemClock.elapsedRealtime();
+        if (key.equals(lastIntent) && (now - lastIntentTime < DUPLICATE_WINDOW))
+            return true;
+        lastIntent = key;
+        lastIntentTime = now;
+        return false;
+    }
 }
@@ -32,15 +32,19 @@ Copyright (c) 2011-2013, Sony Mobile Communications AB
 
 package net.ugona.plus.watch;
 
+import android.content.Context;
+import android.content.Intent;
 import android.os.Handler;
 import android.util.Log;
 
+import com.sonyericsson.extras.liveware.aef.notification.Notification;
 import com.sonyericsson.extras.liveware.extension.util.control.ControlExtension;
 import com.sonyericsson.extras.liveware.extension.util.registration.DeviceInfo;
 import com.sonyericsson.extras.liveware.extension.util.registration.DeviceInfoHelper;
 import com.sonyericsson.extras.liveware.extension.util.registration.DisplayInfo;
 import com.sonyericsson.extras.liveware.extension.util.registration.RegistrationAdapter;
 import com.sonyericsson.extras.liveware.extension.util.registration.RegistrationInformation;
+import com.sonyericsson.extras.liveware.extension.util.widget.WidgetExtension;
 
 /**
  * The Sample Extension Service handles registration and keeps track of all
@@ -78,6 +82,27 @@ public class ExtensionService extends com.sonyericsson.extras.liveware.extension
         return new WatchRegistrationInformation(this);
     }
 
+    /**
+     * Open the car control when a car event is opened on the watch.
+     */
+    @Override
+    protected void onViewEvent(Intent intent) {
+        String hostAppPackageName = intent.getStringExtra(Notification.Intents.EXTRA_AHA_PACKAGE_NAME);
+        if (hostAppPackageName != null)
+            controlStartRequest(hostAppPackageName);
+    }
+
+    @Override
+    protected void onRefreshRequest() {
+        final Context context = getApplicationContext();
+        CarUpdateReceiver.post(new Runnable() {
+            @Override
+            public void run() {
+                AlarmNotifier.process(context);
+            }
+        });
+    }
+
     /*
      * (non-Javadoc)
      * @see com.sonyericsson.extras.liveware.aef.util.ExtensionService#
@@ -88,6 +113,11 @@ public class ExtensionService extends com.sonyericsson.extras.liveware.extension
         return false;
     }
 
+    @Override
+    public WidgetExtension createWidgetExtension(String hostAppPackageName) {
+        return new CarWidget(this, hostAppPackageName);
+    }
+
     @Override
     public ControlExtension createControlExtension(String hostAppPackageName) {
         // First we check if the API level and screen size required for
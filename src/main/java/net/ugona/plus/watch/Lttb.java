@@ -0,0 +1,65 @@
+package net.ugona.plus.watch;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling. The first and the last
+ * points are kept, the points between are split into buckets and from each
+ * bucket the point that makes the largest triangle with the point kept
+ * before it and the average of the next bucket is kept. Every point is
+ * visited once, and nothing is allocated.
+ */
+class Lttb {
+
+    /**
+     * Select the points to draw.
+     *
+     * @param x         Point times, ascending.
+     * @param y         Point values.
+     * @param n         Number of points.
+     * @param threshold Number of points to keep, at least 3.
+     * @param out       Indices of the kept points, at least threshold long.
+     * @return Number of kept points.
+     */
+    static int downsample(long[] x, float[] y, int n, int threshold, int[] out) {
+        if (n <= threshold) {
+            for (int i = 0; i < n; i++) {
+                out[i] = i;
+            }
+            return n;
+        }
+        long x0 = x[0];
+        double every = (double) (n - 2) / (threshold - 2);
+        int a = 0;
+        int k = 0;
+        out[k++] = 0;
+        for (int i = 0; i < threshold - 2; i++) {
+            int avg_start = (int) ((i + 1) * every) + 1;
+            int avg_end = Math.min((int) ((i + 2) * every) + 1, n);
+            double avg_x = 0;
+            double avg_y = 0;
+            for (int j = avg_start; j < avg_end; j++) {
+                avg_x += x[j] - x0;
+                avg_y += y[j];
+            }
+            avg_x /= avg_end - avg_start;
+            avg_y /= avg_end - avg_start;
+
+            int range_start = (int) (i * every) + 1;
+            int range_end = (int) ((i + 1) * every) + 1;
+            double ax = x[a] - x0;
+            double ay = y[a];
+            double max_area = -1;
+            int next = range_start;
+            for (int j = range_start; j < range_end; j++) {
+                double area = Math.abs((ax - avg_x) * (y[j] - ay) - (ax - (x[j] - x0)) * (avg_y - ay));
+                if (area > max_area) {
+                    max_area = area;
+                    next = j;
+                }
+            }
+            out[k++] = next;
+            a = next;
+        }
+        out[k++] = n - 1;
+        return k;
+    }
+}
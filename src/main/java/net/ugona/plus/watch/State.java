@@ -1,5 +1,7 @@
 package net.ugona.plus.watch;
 
+import android.content.SharedPreferences;
+import android.os.Build;
 import android.os.Environment;
 
 import java.io.BufferedWriter;
@@ -13,6 +15,24 @@ import java.util.Date;
 public class State {
 
     static final String ID = "id";
+    static final String SHOW_PENDING = "show_pending";
+
+    /**
+     * Save preferences in the background where the platform can.
+     */
+    static void apply(SharedPreferences.Editor ed) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            Gingerbread.apply(ed);
+        } else {
+            ed.commit();
+        }
+    }
+
+    static class Gingerbread {
+        static void apply(SharedPreferences.Editor ed) {
+            ed.apply();
+        }
+    }
 
     static void appendLog(String text) {
         File logFile = Environment.getExternalStorageDirectory();
@@ -0,0 +1,145 @@
+package net.ugona.plus.watch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * Sparkline of the main and reserved voltage for the last hours of the car
+ * history. The samples are read and downsampled to one point per pixel
+ * column in buffers that are allocated once, and the chart is drawn again
+ * only when a new sample has been recorded.
+ */
+class VoltageChart {
+
+    static final long HOURS = 24;
+    static final long PERIOD = HOURS * 60 * 60 * 1000;
+
+    static final int PADDING = 4;
+    static final int RESERVED_COLOR = 0xFFF0832D;
+
+    final int width;
+    final int height;
+
+    final long[] times = new long[CarHistory.CAPACITY];
+    final float[] voltage_main = new float[CarHistory.CAPACITY];
+    final float[] voltage_reserved = new float[CarHistory.CAPACITY];
+
+    // Samples with a known value of one series
+    final long[] xs = new long[CarHistory.CAPACITY];
+    final float[] ys = new float[CarHistory.CAPACITY];
+
+    final int[] picked;
+    final float[] lines;
+
+    final Bitmap bitmap;
+    final Paint paint;
+    final Paint text_paint;
+
+    String car_id;
+    long drawn_time;
+
+    VoltageChart(int width, int height, float text_size) {
+        this.width = width;
+        this.height = height;
+        picked = new int[width];
+        lines = new float[width * 4];
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStrokeWidth(2);
+        text_paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        text_paint.setColor(Color.WHITE);
+        text_paint.setTextSize(text_size);
+    }
+
+    /**
+     * Check if the chart of a car is up to date with its history.
+     */
+    boolean isDrawn(String car_id, CarHistory history) {
+        return car_id.equals(this.car_id) && (history.getLastTime() == drawn_time);
+    }
+
+    /**
+     * Draw the chart of a car.
+     *
+     * @return The chart bitmap, reused by the next draw.
+     */
+    Bitmap draw(String car_id, CarHistory history) {
+        this.car_id = car_id;
+        drawn_time = history.getLastTime();
+        long end = System.currentTimeMillis();
+        long start = end - PERIOD;
+        int n = history.read(start, times, voltage_main, voltage_reserved, null, null);
+
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            float v = voltage_main[i];
+            if (v > 0) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            v = voltage_reserved[i];
+            if (v > 0) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        }
+
+        bitmap.eraseColor(Color.TRANSPARENT);
+        Canvas canvas = new Canvas(bitmap);
+        if (min > max)
+            return bitmap;
+        if (max - min < 0.5f) {
+            float mid = (max + min) / 2;
+            min = mid - 0.25f;
+            max = mid + 0.25f;
+        }
+        drawSeries(canvas, voltage_reserved, n, start, end, min, max, RESERVED_COLOR);
+        drawSeries(canvas, voltage_main, n, start, end, min, max, Color.WHITE);
+
+        float text_size = text_paint.getTextSize();
+        canvas.drawText(format(max), 0, text_size, text_paint);
+        canvas.drawText(format(min), 0, height, text_paint);
+        return bitmap;
+    }
+
+    void drawSeries(Canvas canvas, float[] values, int n, long start, long end, float min, float max, int color) {
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (values[i] > 0) {
+                xs[count] = times[i];
+                ys[count] = values[i];
+                count++;
+            }
+        }
+        if (count < 2)
+            return;
+        int k = Lttb.downsample(xs, ys, count, width, picked);
+
+        float sx = (float) (width - 1) / (end - start);
+        float sy = (height - 1 - 2 * PADDING) / (max - min);
+        int pos = 0;
+        for (int i = 0; i < k; i++) {
+            int j = picked[i];
+            float x = (xs[j] - start) * sx;
+            float y = height - 1 - PADDING - (ys[j] - min) * sy;
+            if (i > 0) {
+                lines[pos++] = x;
+                lines[pos++] = y;
+            }
+            if (i < k - 1) {
+                lines[pos++] = x;
+                lines[pos++] = y;
+            }
+        }
+        paint.setColor(color);
+        canvas.drawLines(lines, 0, pos, paint);
+    }
+
+    static String format(float voltage) {
+        int v = Math.round(voltage * 10);
+        return (v / 10) + "." + (v % 10);
+    }
+}
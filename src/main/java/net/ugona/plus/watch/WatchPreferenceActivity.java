@@ -43,6 +43,8 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.BaseAdapter;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.Spinner;
 import android.widget.TextView;
 
@@ -136,6 +138,17 @@ public class WatchPreferenceActivity extends Activity {
             }
         });
 
+        CheckBox show_pending = (CheckBox) findViewById(R.id.show_pending);
+        show_pending.setChecked(preferences.getBoolean(State.SHOW_PENDING, false));
+        show_pending.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                SharedPreferences.Editor ed = preferences.edit();
+                ed.putBoolean(State.SHOW_PENDING, isChecked);
+                ed.commit();
+            }
+        });
+
         cars.setSelection(current);
         cars.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
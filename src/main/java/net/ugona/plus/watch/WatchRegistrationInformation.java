@@ -35,9 +35,11 @@ package net.ugona.plus.watch;
 import android.content.ContentValues;
 import android.content.Context;
 
+import com.sonyericsson.extras.liveware.aef.notification.Notification;
 import com.sonyericsson.extras.liveware.aef.registration.Registration;
 import com.sonyericsson.extras.liveware.extension.util.ExtensionUtils;
 import com.sonyericsson.extras.liveware.extension.util.registration.RegistrationInformation;
+import com.sonyericsson.extras.liveware.extension.util.sensor.AccessorySensor;
 
 /**
  * Provides information needed during extension registration
@@ -73,19 +75,34 @@ public class WatchRegistrationInformation extends RegistrationInformation {
         return 2;
     }
 
+    @Override
+    public boolean supportsLowPowerMode() {
+        return true;
+    }
+
     @Override
     public int getRequiredSensorApiVersion() {
-        return 0;
+        return 1;
+    }
+
+    @Override
+    public boolean isSensorSupported(AccessorySensor sensor) {
+        return Registration.SensorTypeValue.ACCELEROMETER.equals(sensor.getType().getName());
     }
 
     @Override
     public int getRequiredNotificationApiVersion() {
-        return 0;
+        return 1;
     }
 
     @Override
     public int getRequiredWidgetApiVersion() {
-        return 0;
+        return 1;
+    }
+
+    @Override
+    public boolean isWidgetSizeSupported(int width, int height) {
+        return (width == CarWidget.getSupportedWidgetWidth(mContext) && height == CarWidget.getSupportedWidgetHeight(mContext));
     }
 
     /**
@@ -123,6 +140,29 @@ public class WatchRegistrationInformation extends RegistrationInformation {
         return values;
     }
 
+    /**
+     * Get the car alarm source registration information.
+     *
+     * @return The source configurations.
+     */
+    @Override
+    public ContentValues[] getSourceRegistrationConfigurations() {
+        ContentValues values = new ContentValues();
+        values.put(Notification.SourceColumns.ENABLED, true);
+        values.put(Notification.SourceColumns.ICON_URI_1,
+                ExtensionUtils.getUriString(mContext, R.drawable.icn_30x30_message_notification));
+        values.put(Notification.SourceColumns.ICON_URI_2,
+                ExtensionUtils.getUriString(mContext, R.drawable.icn_18x18_message_notification));
+        values.put(Notification.SourceColumns.ICON_URI_BLACK_WHITE, ExtensionUtils.getUriString(
+                mContext, R.drawable.icn_18x18_black_white_message_notification));
+        values.put(Notification.SourceColumns.NAME, mContext.getString(R.string.extension_name));
+        values.put(Notification.SourceColumns.EXTENSION_SPECIFIC_ID, AlarmNotifier.SOURCE);
+        values.put(Notification.SourceColumns.PACKAGE_NAME, mContext.getPackageName());
+        return new ContentValues[]{
+                values
+        };
+    }
+
     @Override
     public boolean isDisplaySizeSupported(int width, int height) {
         return ((width == ControlSmartWatch2.getSupportedControlWidth(mContext) && height == ControlSmartWatch2.getSupportedControlHeight(mContext))
@@ -0,0 +1,170 @@
+package net.ugona.plus.watch;
+
+import com.sonyericsson.extras.liveware.extension.util.sensor.AccessorySensorEvent;
+import com.sonyericsson.extras.liveware.extension.util.sensor.AccessorySensorEventBatchListener;
+
+/**
+ * Streaming wrist gesture recognizer over accelerometer samples. Gravity is
+ * removed with a low pass filter and every swing of the wrist shows up as a
+ * peak of linear acceleration along one axis. A gesture ends after a quiet
+ * period and is classified by the number of direction changes:
+ * <p/>
+ * - a swing and its rebound, two peaks of opposite sign on the same axis,
+ * within a short time is a flick,
+ * - two shakes (4 or more peaks) within the shake window is a double shake.
+ * <p/>
+ * Runs on the sensor thread. All state is held in fixed primitive fields, no
+ * objects are allocated per sample.
+ */
+class WristGestureDetector implements AccessorySensorEventBatchListener {
+
+    interface Listener {
+        /**
+         * Called on the sensor thread when a flick is detected.
+         */
+        void onFlick();
+
+        /**
+         * Called on the sensor thread when a double shake is detected.
+         */
+        void onDoubleShake();
+    }
+
+    static final float GRAVITY_ALPHA = 0.8f;
+
+    // Linear acceleration in m/s^2
+    static final float PEAK_THRESHOLD = 9f;
+
+    static final long MS = 1000000L;
+    static final long STROKE_GAP = 200 * MS;
+    static final long QUIET_TIME = 400 * MS;
+    static final long FLICK_TIME = 300 * MS;
+    static final long SHAKE_TIME = 1500 * MS;
+    static final long COOLDOWN_TIME = 1000 * MS;
+
+    static final int SHAKE_PEAKS = 4;
+
+    final Listener listener;
+
+    float gravity_x;
+    float gravity_y;
+    float gravity_z;
+    boolean initialized;
+
+    int peaks;
+    int first_direction;
+    int last_direction;
+    boolean rebound;
+    long first_peak;
+    long last_peak;
+    long cooldown_until;
+
+    WristGestureDetector(Listener listener) {
+        this.listener = listener;
+    }
+
+    void reset() {
+        initialized = false;
+        peaks = 0;
+        first_direction = 0;
+        last_direction = 0;
+        rebound = false;
+        cooldown_until = 0;
+    }
+
+    @Override
+    public void onSensorEvents(AccessorySensorEvent[] events, int count) {
+        for (int i = 0; i < count; i++) {
+            float[] values = events[i].getSensorValues();
+            if (values.length >= 3)
+                add(values[0], values[1], values[2], events[i].getTimestamp());
+        }
+    }
+
+    /**
+     * Add one sample.
+     *
+     * @param x    Acceleration along x in m/s^2.
+     * @param y    Acceleration along y in m/s^2.
+     * @param z    Acceleration along z in m/s^2.
+     * @param time Sample time in nanoseconds.
+     */
+    void add(float x, float y, float z, long time) {
+        if (!initialized) {
+            gravity_x = x;
+            gravity_y = y;
+            gravity_z = z;
+            initialized = true;
+            return;
+        }
+        gravity_x = GRAVITY_ALPHA * gravity_x + (1 - GRAVITY_ALPHA) * x;
+        gravity_y = GRAVITY_ALPHA * gravity_y + (1 - GRAVITY_ALPHA) * y;
+        gravity_z = GRAVITY_ALPHA * gravity_z + (1 - GRAVITY_ALPHA) * z;
+
+        if (time < cooldown_until)
+            return;
+
+        float lx = x - gravity_x;
+        float ly = y - gravity_y;
+        float lz = z - gravity_z;
+        float ax = Math.abs(lx);
+        float ay = Math.abs(ly);
+        float az = Math.abs(lz);
+
+        // Dominant axis and sign, 1..6
+        int direction;
+        float value;
+        if ((ax >= ay) && (ax >= az)) {
+            value = ax;
+            direction = (lx > 0) ? 1 : 2;
+        } else if (ay >= az) {
+            value = ay;
+            direction = (ly > 0) ? 3 : 4;
+        } else {
+            value = az;
+            direction = (lz > 0) ? 5 : 6;
+        }
+
+        if (value > PEAK_THRESHOLD) {
+            if ((peaks == 0) || (direction != last_direction) || (time - last_peak > STROKE_GAP)) {
+                if (peaks == 0) {
+                    first_peak = time;
+                    first_direction = direction;
+                } else if ((peaks == 1) && isOpposite(direction, first_direction) && (time - first_peak <= FLICK_TIME)) {
+                    rebound = true;
+                }
+                peaks++;
+                last_direction = direction;
+            }
+            last_peak = time;
+            return;
+        }
+
+        if ((peaks > 0) && (time - last_peak > QUIET_TIME))
+            classify(time);
+    }
+
+    void classify(long time) {
+        long span = last_peak - first_peak;
+        int n = peaks;
+        boolean flick = rebound;
+        peaks = 0;
+        first_direction = 0;
+        last_direction = 0;
+        rebound = false;
+        if ((n == 2) && flick && (span <= FLICK_TIME)) {
+            cooldown_until = time + COOLDOWN_TIME;
+            listener.onFlick();
+        } else if ((n >= SHAKE_PEAKS) && (span <= SHAKE_TIME)) {
+            cooldown_until = time + COOLDOWN_TIME;
+            listener.onDoubleShake();
+        }
+    }
+
+    /**
+     * Check if two directions are the two signs of one axis.
+     */
+    static boolean isOpposite(int a, int b) {
+        return (a != b) && ((a + 1) / 2 == (b + 1) / 2);
+    }
+}